@@ -0,0 +1,85 @@
+package com.mikeescom;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The object generated code reads extras from and writes them to. Codecs only name the typed accessor
+ * (eg. "Int") and the container turns it into the matching call: {@code intent.getIntExtra} on the
+ * Intent or {@code extras.getInt} on a Bundle.
+ */
+public enum ExtraContainer {
+    INTENT("intent", "android.content.Intent"),
+    BUNDLE("extras", "android.os.Bundle") {
+        @NotNull
+        @Override
+        public String put(@NotNull final String typeSuffix, @NotNull final String key, @NotNull final String value) {
+            return String.format("%s.put%s(%s, %s);", getVariable(), typeSuffix, key, value);
+        }
+
+        @NotNull
+        @Override
+        public String get(@NotNull final String typeSuffix, @NotNull final String key,
+                          @Nullable final String defaultValue) {
+            if (defaultValue == null) {
+                return String.format("%s.get%s(%s)", getVariable(), typeSuffix, key);
+            }
+            return String.format("%s.get%s(%s, %s)", getVariable(), typeSuffix, key, defaultValue);
+        }
+
+        @NotNull
+        @Override
+        public String has(@NotNull final String key) {
+            return String.format("%s.containsKey(%s)", getVariable(), key);
+        }
+    };
+
+    @NonNls
+    private final String variable;
+    @NonNls
+    private final String typeName;
+
+    ExtraContainer(@NonNls final String variable, @NonNls final String typeName) {
+        this.variable = variable;
+        this.typeName = typeName;
+    }
+
+    public String getVariable() {
+        return variable;
+    }
+
+    /**
+     * @return the qualified name of the container class
+     */
+    public String getTypeName() {
+        return typeName;
+    }
+
+    /**
+     * @return a statement writing {@code value}, eg. {@code intent.putExtra(key, value);}
+     */
+    @NotNull
+    public String put(@NotNull final String typeSuffix, @NotNull final String key, @NotNull final String value) {
+        return String.format("%s.putExtra(%s, %s);", variable, key, value);
+    }
+
+    /**
+     * @return an expression reading the value, eg. {@code intent.getIntExtra(key, 0)}
+     */
+    @NotNull
+    public String get(@NotNull final String typeSuffix, @NotNull final String key, @Nullable final String defaultValue) {
+        if (defaultValue == null) {
+            return String.format("%s.get%sExtra(%s)", variable, typeSuffix, key);
+        }
+        return String.format("%s.get%sExtra(%s, %s)", variable, typeSuffix, key, defaultValue);
+    }
+
+    /**
+     * @return an expression checking the key is present
+     */
+    @NotNull
+    public String has(@NotNull final String key) {
+        return String.format("%s.hasExtra(%s)", variable, key);
+    }
+}
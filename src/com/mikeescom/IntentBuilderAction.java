@@ -3,11 +3,15 @@ package com.mikeescom;
 import com.intellij.codeInsight.CodeInsightActionHandler;
 import com.intellij.codeInsight.actions.BaseCodeInsightAction;
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.PsiFile;
 import org.jetbrains.annotations.NotNull;
 
-public class IntentBuilderAction extends BaseCodeInsightAction {
+/**
+ * Available while indexing, the handler then generates from the class's own fields.
+ */
+public class IntentBuilderAction extends BaseCodeInsightAction implements DumbAware {
     private final IntentBuilderHandler handler = new IntentBuilderHandler();
 
     @NotNull
@@ -0,0 +1,65 @@
+package com.mikeescom;
+
+import java.io.File;
+
+import org.jetbrains.annotations.NonNls;
+
+import com.intellij.ide.impl.ProjectUtil;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ApplicationStarter;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+
+/**
+ * Headless entry point: {@code idea intentbuilder <projectPath> [sourceDir]} regenerates every Intent
+ * Builder of the project, or of the given source directory, and exits.
+ */
+public class IntentBuilderApplicationStarter implements ApplicationStarter {
+    private static final Logger LOG = Logger.getInstance(IntentBuilderApplicationStarter.class);
+
+    @NonNls
+    private static final String COMMAND_NAME = "intentbuilder";
+
+    @Override
+    public String getCommandName() {
+        return COMMAND_NAME;
+    }
+
+    @Override
+    public void premain(final String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: " + COMMAND_NAME + " <projectPath> [sourceDir]");
+            System.exit(1);
+        }
+    }
+
+    @Override
+    public void main(final String[] args) {
+        final String projectPath = new File(args[1]).getAbsolutePath();
+        final Project project = ProjectUtil.openOrImport(projectPath, null, false);
+        if (project == null) {
+            LOG.error("Cannot open project " + projectPath);
+            System.exit(1);
+            return;
+        }
+
+        final VirtualFile root = LocalFileSystem.getInstance().refreshAndFindFileByPath(
+                args.length > 2 ? new File(args[2]).getAbsolutePath() : projectPath);
+        if (root == null) {
+            LOG.error("Cannot find " + (args.length > 2 ? args[2] : projectPath));
+            System.exit(1);
+            return;
+        }
+
+        DumbService.getInstance(project).smartInvokeLater(() -> {
+            try {
+                IntentBuilderBatchGenerator.generate(project, root);
+            } finally {
+                ApplicationManager.getApplication().exit(true, true);
+            }
+        });
+    }
+}
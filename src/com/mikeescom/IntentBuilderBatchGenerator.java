@@ -0,0 +1,192 @@
+package com.mikeescom;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import com.intellij.codeInsight.generation.PsiFieldMember;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.util.IncorrectOperationException;
+
+/**
+ * Regenerates every Intent Builder under a source root outside the editor. Each class is keyed by its
+ * fields, tags, options, settings and templates, and by what its spec resolves: the base class, minSdk,
+ * BuildConfig and field type codecs. A class whose file already matches the cached output for its key is
+ * skipped, and a file is only written when the regenerated text differs, so a repeated run leaves the
+ * timestamps of unchanged sources alone. Tags are recovered from the key constants, a class with a tag that
+ * cannot be recovered is skipped rather than regenerated without its extra. With base builders the
+ * ExtrasBuilder of the base class is regenerated too.
+ */
+final class IntentBuilderBatchGenerator {
+    private static final Logger LOG = Logger.getInstance(IntentBuilderBatchGenerator.class);
+
+    /**
+     * Part of every cache key, bump it when the generated code changes for the same inputs.
+     */
+    @NonNls
+    private static final String GENERATOR_VERSION = "3";
+    @NonNls
+    private static final String COMMAND_NAME = "Regenerate Intent Builders";
+
+    private final Project project;
+    private final Set<IntentBuilderOption> options;
+    private final IntentBuilderOutputCache cache;
+    private int generated;
+    private int skipped;
+    private int unrecoverable;
+
+    private IntentBuilderBatchGenerator(final Project project, final Set<IntentBuilderOption> options) {
+        this.project = project;
+        this.options = options;
+        this.cache = IntentBuilderOutputCache.getInstance(project);
+    }
+
+    /**
+     * Must be called on the EDT with indices ready.
+     */
+    static void generate(@NotNull final Project project, @NotNull final VirtualFile root) {
+        final IntentBuilderBatchGenerator batch =
+                new IntentBuilderBatchGenerator(project, IntentBuilderOption.currentOptions());
+        final long start = System.nanoTime();
+        VfsUtilCore.iterateChildrenRecursively(root, null, file -> {
+            if (!file.isDirectory() && "java".equals(file.getExtension())) {
+                batch.generate(file);
+            }
+            return true;
+        });
+        LOG.info(String.format("Intent Builder: %d regenerated, %d unchanged, %d with unrecoverable tags in %d ms",
+                batch.generated, batch.skipped, batch.unrecoverable, (System.nanoTime() - start) / 1000000L));
+    }
+
+    private void generate(final VirtualFile virtualFile) {
+        // a write reparses the file, every class is read from the PSI of the latest text
+        for (int i = 0; ; i++) {
+            ProgressManager.checkCanceled();
+            final PsiFile file = PsiManager.getInstance(project).findFile(virtualFile);
+            if (!(file instanceof PsiJavaFile) || i >= ((PsiJavaFile) file).getClasses().length) {
+                return;
+            }
+            generate((PsiJavaFile) file, i);
+        }
+    }
+
+    private void generate(final PsiJavaFile file, final int classIndex) {
+        final PsiClass topLevelClass = file.getClasses()[classIndex];
+        if (topLevelClass.findInnerClassByName(IntentBuilderGenerator.BUILDER_CLASS_NAME, false) == null) {
+            return;
+        }
+
+        final List<PsiFieldMember> members = IntentBuilderCollector.collectFields(topLevelClass, topLevelClass);
+        if (members == null || members.isEmpty()) {
+            return;
+        }
+
+        final Map<String, String[]> tags = IntentBuilderCollector.recoverTags(topLevelClass, members);
+        if (IntentBuilderCollector.hasUnrecoveredTags(topLevelClass, tags)) {
+            LOG.warn(String.format("Intent Builder: %s skipped, a tag is not a key constant and cannot be "
+                    + "recovered", topLevelClass.getQualifiedName()));
+            unrecoverable++;
+            return;
+        }
+
+        final String inputKey = GENERATOR_VERSION + '|' + IntentBuilderTemplates.fingerprint(project) + '|'
+                + topLevelClass.getQualifiedName() + '|' + IntentBuilderSpec.cacheKey(members, tags, options) + '|'
+                + IntentBuilderSpec.dependencyKey(topLevelClass, members, tags, options);
+        final String currentHash = IntentBuilderUtils.sha256(file.getText());
+        if (currentHash.equals(cache.get(inputKey))) {
+            skipped++;
+            return;
+        }
+
+        // the spec is computed from the class in the copy so the generator only changes the copy
+        final PsiJavaFile copy = (PsiJavaFile) file.copy();
+        final PsiClass copyClass = copy.getClasses()[classIndex];
+        final List<PsiFieldMember> copyMembers = IntentBuilderCollector.collectFields(copyClass, copyClass);
+        if (copyMembers == null) {
+            return;
+        }
+        final IntentBuilderSpec spec;
+        try {
+            spec = IntentBuilderSpec.getOrCompute(copyClass, copyMembers, tags, options);
+        } catch (IncorrectOperationException e) {
+            LOG.warn(String.format("Intent Builder: %s skipped, %s", topLevelClass.getQualifiedName(),
+                    e.getMessage()));
+            unrecoverable++;
+            return;
+        }
+
+        final boolean baseWritten = generateBaseBuilder(copy, spec);
+        IntentBuilderGenerator.generateInCopy(project, copy, copyClass, spec);
+        final String output = copy.getText();
+        if (!output.equals(file.getText())) {
+            write(file, output);
+            generated++;
+        } else {
+            skipped++;
+        }
+        // the key holds the text of the base class before it was written, the next run records the new one
+        if (!baseWritten) {
+            cache.put(inputKey, IntentBuilderUtils.sha256(output));
+        }
+    }
+
+    /**
+     * Regenerates the ExtrasBuilder of a base class in another file, the subclass Builder extends it and
+     * gets its setters through IExtras. A base class in the same file is generated in the copy.
+     *
+     * @return whether the file of the base class was written
+     */
+    private boolean generateBaseBuilder(final PsiJavaFile copy, final IntentBuilderSpec spec) {
+        final IntentBuilderSpec baseSpec = spec.getBaseSpec();
+        final PsiClass baseClass = baseSpec != null ? baseSpec.getTopLevelClass() : null;
+        if (baseClass == null || baseClass.getContainingFile() == copy
+                || !(baseClass.getContainingFile() instanceof PsiJavaFile)) {
+            return false;
+        }
+
+        final PsiJavaFile baseFile = (PsiJavaFile) baseClass.getContainingFile();
+        final int baseIndex = Arrays.asList(baseFile.getClasses()).indexOf(baseClass);
+        if (baseIndex < 0) {
+            return false;
+        }
+
+        final PsiJavaFile baseCopy = (PsiJavaFile) baseFile.copy();
+        IntentBuilderGenerator.generateBaseInCopy(project, baseCopy, baseCopy.getClasses()[baseIndex], baseSpec);
+        final String output = baseCopy.getText();
+        if (output.equals(baseFile.getText())) {
+            return false;
+        }
+        write(baseFile, output);
+        generated++;
+        return true;
+    }
+
+    private void write(final PsiFile file, final String text) {
+        final Document document = PsiDocumentManager.getInstance(project).getDocument(file);
+        if (document == null) {
+            return;
+        }
+
+        WriteCommandAction.runWriteCommandAction(project, COMMAND_NAME, null, () -> {
+            document.setText(text);
+            PsiDocumentManager.getInstance(project).commitDocument(document);
+            FileDocumentManager.getInstance().saveDocument(document);
+        }, file);
+    }
+}
@@ -1,28 +1,55 @@
 package com.mikeescom;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.Nullable;
 
 import com.intellij.codeInsight.generation.PsiFieldMember;
 
+import com.intellij.ide.util.PropertiesComponent;
+
 import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.util.text.StringUtil;
 
 import com.intellij.psi.JavaPsiFacade;
 import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiCompiledElement;
 import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiExpression;
 import com.intellij.psi.PsiField;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiMethodCallExpression;
 import com.intellij.psi.PsiModifier;
+import com.intellij.psi.PsiReferenceExpression;
 import com.intellij.psi.PsiResolveHelper;
 import com.intellij.psi.PsiSubstitutor;
+import com.intellij.psi.PsiType;
 import com.intellij.psi.util.PsiTreeUtil;
 import com.intellij.psi.util.TypeConversionUtil;
 
 import static com.mikeescom.IntentBuilderUtils.hasLowerCaseChar;
 
 public class IntentBuilderCollector {
+    /**
+     * Comma separated qualified names of base classes whose fields, and the fields of their own
+     * superclasses, are never collected.
+     */
+    @NonNls
+    public static final String HIERARCHY_STOP_CLASSES_PROPERTY = "GenerateStepBuilder.hierarchyStopClasses";
+    @NonNls
+    private static final String DEFAULT_HIERARCHY_STOP_CLASSES = "android.app.Activity,android.app.Fragment,"
+            + "android.support.v4.app.FragmentActivity,android.support.v4.app.Fragment,"
+            + "android.support.v7.app.AppCompatActivity,androidx.fragment.app.FragmentActivity,"
+            + "androidx.fragment.app.Fragment,androidx.appcompat.app.AppCompatActivity";
+
     private IntentBuilderCollector() { }
 
     @Nullable
@@ -34,11 +61,25 @@ public class IntentBuilderCollector {
         }
 
         final PsiClass clazz = PsiTreeUtil.getParentOfType(element, PsiClass.class);
-        if (clazz == null || clazz.hasModifierProperty(PsiModifier.ABSTRACT)) {
+        if (clazz == null) {
+            return null;
+        }
+
+        return collectFields(clazz, element);
+    }
+
+    @Nullable
+    public static List<PsiFieldMember> collectFields(final PsiClass clazz, final PsiElement element) {
+        if (clazz.hasModifierProperty(PsiModifier.ABSTRACT)) {
             return null;
         }
 
         final List<PsiFieldMember> allFields = new ArrayList<PsiFieldMember>();
+        final boolean sourceOnly = !PropertiesComponent.getInstance().getBoolean(
+                IntentBuilderOption.INCLUDE_LIBRARY_FIELDS.getProperty(), false);
+        final Set<String> stopClasses = hierarchyStopClasses();
+        // superclasses and accessibility need resolving, while indexing only the class's own fields are read
+        final boolean dumb = DumbService.isDumb(clazz.getProject());
 
         PsiClass classToExtractFieldsFrom = clazz;
         while (classToExtractFieldsFrom != null) {
@@ -46,25 +87,46 @@ public class IntentBuilderCollector {
                 break;
             }
 
+            // don't load the fields of compiled library and framework classes
+            if (sourceOnly && classToExtractFieldsFrom instanceof PsiCompiledElement) {
+                break;
+            }
+
+            if (stopClasses.contains(classToExtractFieldsFrom.getQualifiedName())) {
+                break;
+            }
+
             final List<PsiFieldMember> classFieldMembers = collectFieldsInClass(element, clazz,
-                    classToExtractFieldsFrom);
+                    classToExtractFieldsFrom, dumb);
             allFields.addAll(0, classFieldMembers);
 
-            classToExtractFieldsFrom = classToExtractFieldsFrom.getSuperClass();
+            classToExtractFieldsFrom = dumb ? null : classToExtractFieldsFrom.getSuperClass();
         }
 
         return allFields;
     }
 
+    private static Set<String> hierarchyStopClasses() {
+        final String value = PropertiesComponent.getInstance().getValue(HIERARCHY_STOP_CLASSES_PROPERTY,
+                DEFAULT_HIERARCHY_STOP_CLASSES);
+        final Set<String> stopClasses = new HashSet<String>();
+        for (final String className : value.split(",")) {
+            if (!StringUtil.isEmptyOrSpaces(className)) {
+                stopClasses.add(className.trim());
+            }
+        }
+        return stopClasses;
+    }
+
     private static List<PsiFieldMember> collectFieldsInClass(final PsiElement element, final PsiClass accessObjectClass,
-                                                             final PsiClass clazz) {
+                                                             final PsiClass clazz, final boolean dumb) {
         final List<PsiFieldMember> classFieldMembers = new ArrayList<PsiFieldMember>();
         final PsiResolveHelper helper = JavaPsiFacade.getInstance(clazz.getProject()).getResolveHelper();
 
         for (final PsiField field : clazz.getFields()) {
 
             // check access to the field from the builder container class (eg. private superclass fields)
-            if (helper.isAccessible(field, accessObjectClass, clazz)
+            if ((dumb || helper.isAccessible(field, accessObjectClass, clazz))
                     && !PsiTreeUtil.isAncestor(field, element, false)) {
 
                 // skip static fields
@@ -77,15 +139,13 @@ public class IntentBuilderCollector {
                     continue;
                 }
 
+                // skip the generated holders of compressed and shared memory extras
+                if (isHolder(field, clazz)) {
+                    continue;
+                }
+
                 // skip eventual logging fields
-                final String fieldType = field.getType().getCanonicalText();
-                if ("org.apache.log4j.Logger".equals(fieldType) || "org.apache.logging.log4j.Logger".equals(fieldType)
-                        || "java.util.logging.Logger".equals(fieldType) || "org.slf4j.Logger".equals(fieldType)
-                        || "ch.qos.logback.classic.Logger".equals(fieldType)
-                        || "net.sf.microlog.core.Logger".equals(fieldType)
-                        || "org.apache.commons.logging.Log".equals(fieldType)
-                        || "org.pmw.tinylog.Logger".equals(fieldType) || "org.jboss.logging.Logger".equals(fieldType)
-                        || "jodd.log.Logger".equals(fieldType)) {
+                if (isLogger(field, dumb)) {
                     continue;
                 }
 
@@ -101,7 +161,8 @@ public class IntentBuilderCollector {
 
                 final PsiClass containingClass = field.getContainingClass();
                 if (containingClass != null) {
-                    classFieldMembers.add(buildFieldMember(field, containingClass, clazz));
+                    classFieldMembers.add(dumb ? new PsiFieldMember(field)
+                            : buildFieldMember(field, containingClass, clazz));
                 }
             }
         }
@@ -109,9 +170,128 @@ public class IntentBuilderCollector {
         return classFieldMembers;
     }
 
+    private static boolean isLogger(final PsiField field, final boolean dumb) {
+        if (dumb) {
+            // the canonical text resolves the type, match the simple names instead
+            final String typeName = field.getType().getPresentableText();
+            return "Logger".equals(typeName) || "Log".equals(typeName);
+        }
+
+        final String fieldType = field.getType().getCanonicalText();
+        return "org.apache.log4j.Logger".equals(fieldType) || "org.apache.logging.log4j.Logger".equals(fieldType)
+                || "java.util.logging.Logger".equals(fieldType) || "org.slf4j.Logger".equals(fieldType)
+                || "ch.qos.logback.classic.Logger".equals(fieldType)
+                || "net.sf.microlog.core.Logger".equals(fieldType)
+                || "org.apache.commons.logging.Log".equals(fieldType)
+                || "org.pmw.tinylog.Logger".equals(fieldType) || "org.jboss.logging.Logger".equals(fieldType)
+                || "jodd.log.Logger".equals(fieldType);
+    }
+
+    private static boolean isHolder(final PsiField field, final PsiClass clazz) {
+        final String name = field.getName();
+        if (name.endsWith(IntentBuilderSpec.COMPRESSED_HOLDER_SUFFIX)) {
+            return PsiType.BYTE.createArrayType().equals(field.getType())
+                    && clazz.findFieldByName(StringUtil.trimEnd(name, IntentBuilderSpec.COMPRESSED_HOLDER_SUFFIX),
+                    false) != null;
+        }
+        if (name.endsWith(IntentBuilderSpec.SHARED_MEMORY_HOLDER_SUFFIX)) {
+            // holders of earlier generations kept the region itself
+            final String typeName = field.getType().getPresentableText();
+            return (StringUtil.getShortName(IntentBuilderSpec.SHARED_MEMORY_HOLDER_TYPE).equals(typeName)
+                    || StringUtil.getShortName(IntentBuilderSpec.SHARED_MEMORY_CLASS_NAME).equals(typeName))
+                    && clazz.findFieldByName(StringUtil.trimEnd(name, IntentBuilderSpec.SHARED_MEMORY_HOLDER_SUFFIX),
+                    false) != null;
+        }
+        return false;
+    }
+
     private static PsiFieldMember buildFieldMember(final PsiField field, final PsiClass containingClass,
                                                    final PsiClass clazz) {
         return new PsiFieldMember(field,
                 TypeConversionUtil.getSuperClassSubstitutor(containingClass, clazz, PsiSubstitutor.EMPTY));
     }
+
+    /**
+     * Reads the tags back from the generated key constants, for generation without the tag editor. Tags
+     * typed as a reference to another constant leave no key constant behind and are not recovered.
+     */
+    static Map<String, String[]> recoverTags(final PsiClass topLevelClass,
+                                             final List<PsiFieldMember> members) {
+        // superclasses need resolving, while indexing only the constants of the class itself are found
+        final boolean checkBases = !DumbService.isDumb(topLevelClass.getProject());
+        final Map<String, String[]> tags = new HashMap<String, String[]>();
+        for (final PsiFieldMember member : members) {
+            final PsiField field = member.getElement();
+            final PsiField constant = topLevelClass.findFieldByName(IntentBuilderSpec.KEY_CONSTANT_PREFIX
+                    + IntentBuilderUtils.toConstantName(field.getName()), checkBases);
+            final PsiExpression initializer = constant != null ? constant.getInitializer() : null;
+            if (initializer != null) {
+                final boolean sharedMemory = topLevelClass.findFieldByName(
+                        field.getName() + IntentBuilderSpec.SHARED_MEMORY_HOLDER_SUFFIX, checkBases) != null;
+                tags.put(field.getName(), new String[]{field.getType().getPresentableText(), initializer.getText(),
+                        String.valueOf(sharedMemory)});
+            }
+        }
+        return tags;
+    }
+
+    /**
+     * @return true if the generated code writes more extras than there are recovered tags, eg. because a tag
+     * was typed as a reference to another constant; regenerating from these tags would drop extras
+     */
+    static boolean hasUnrecoveredTags(final PsiClass topLevelClass, final Map<String, String[]> tags) {
+        int writtenExtras = 0;
+        final PsiClass builderClass = topLevelClass.findInnerClassByName(IntentBuilderGenerator.BUILDER_CLASS_NAME,
+                false);
+        if (builderClass != null) {
+            writtenExtras += countPutCalls(builderClass.findMethodsByName(
+                    IntentBuilderGenerator.BUILD_METHOD_NAME, false));
+        }
+
+        // the inherited extras written by the base builder, its constants are recovered as well
+        final PsiClass superClass = DumbService.isDumb(topLevelClass.getProject())
+                ? null : topLevelClass.getSuperClass();
+        if (superClass != null) {
+            writtenExtras += countBaseExtras(superClass);
+        }
+        return tags.size() < writtenExtras;
+    }
+
+    /**
+     * @return the number of extras the generated base builder of a class writes, 0 without one
+     */
+    static int countBaseExtras(final PsiClass baseClass) {
+        final PsiClass baseBuilderClass = baseClass.findInnerClassByName(
+                IntentBuilderGenerator.BASE_BUILDER_CLASS_NAME, false);
+        return baseBuilderClass != null ? countPutCalls(baseBuilderClass.findMethodsByName(
+                IntentBuilderGenerator.WRITE_EXTRAS_METHOD_NAME, false)) : 0;
+    }
+
+    private static int countPutCalls(final PsiMethod[] methods) {
+        int count = 0;
+        for (final PsiMethod method : methods) {
+            for (final PsiMethodCallExpression call
+                    : PsiTreeUtil.findChildrenOfType(method.getBody(), PsiMethodCallExpression.class)) {
+                final PsiReferenceExpression methodExpression = call.getMethodExpression();
+                final String methodName = methodExpression.getReferenceName();
+                final PsiExpression qualifier = methodExpression.getQualifierExpression();
+                // intent.putExtras(extras) hands the presized Bundle over, it is not an extra
+                if (methodName != null && methodName.startsWith("put") && !"putExtras".equals(methodName)
+                        && qualifier instanceof PsiReferenceExpression && isContainer(
+                        ((PsiReferenceExpression) qualifier).getReferenceName())) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static boolean isContainer(@Nullable final String variable) {
+        for (final ExtraContainer container : ExtraContainer.values()) {
+            if (container.getVariable().equals(variable)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -1,30 +1,87 @@
 package com.mikeescom;
 
-import com.intellij.codeInsight.generation.PsiFieldMember;
-import com.intellij.ide.util.PropertiesComponent;
 import com.intellij.openapi.application.ApplicationManager;
-import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbService;
 import com.intellij.openapi.project.Project;
 import com.intellij.psi.*;
 import com.intellij.psi.codeStyle.CodeStyleManager;
 import com.intellij.psi.codeStyle.JavaCodeStyleManager;
-import com.intellij.psi.util.PropertyUtil;
+import com.intellij.psi.impl.source.PostprocessReformattingAspect;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.util.PsiTypesUtil;
 import com.intellij.psi.util.PsiUtil;
 import org.apache.http.util.TextUtils;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
 
 import java.util.*;
 
 public class IntentBuilderGenerator implements Runnable {
+    private static final Logger LOG = Logger.getInstance(IntentBuilderGenerator.class);
 
     @NonNls
-    private static final String CONTEXT_CLASS_NAME = "Context";
+    private static final String COMMAND_NAME = "Generate Intent Builder";
     @NonNls
-    private static final String INTENT_CLASS_NAME = "Intent";
+    private static final String CONTEXT_CLASS_NAME = "android.content.Context";
     @NonNls
-    private static final String BUILDER_CLASS_NAME = "Builder";
+    private static final String INTENT_CLASS_NAME = "android.content.Intent";
+    @NonNls
+    static final String BUILDER_CLASS_NAME = "Builder";
+    @NonNls
+    static final String FINGERPRINT_FIELD_NAME = "FIELDS_FINGERPRINT";
+    @NonNls
+    static final String COMPRESS_METHOD_NAME = "compressExtra";
+    @NonNls
+    static final String DECOMPRESS_METHOD_NAME = "decompressExtra";
+    @NonNls
+    static final String WRITE_SHARED_MEMORY_METHOD_NAME = "writeSharedMemory";
+    @NonNls
+    static final String READ_SHARED_MEMORY_METHOD_NAME = "readSharedMemory";
+    @NonNls
+    static final String MAP_SHARED_MEMORY_METHOD_NAME = "mapSharedMemory";
+    @NonNls
+    private static final String SHARED_MEMORY_BINDER_CLASS_NAME = "SharedMemoryBinder";
+    @NonNls
+    private static final String SHARED_MEMORY_BINDER_KEY = "memory";
+    @NonNls
+    private static final String SHARED_MEMORY_BYTES_KEY = "bytes";
+    @NonNls
+    private static final String SHARED_MEMORY_MAPPINGS_FIELD_NAME = "SHARED_MEMORY_MAPPINGS";
+    @NonNls
+    static final String BASE_BUILDER_CLASS_NAME = "ExtrasBuilder";
+    @NonNls
+    static final String BASE_INTERFACE_NAME = "IExtras";
+    @NonNls
+    private static final String READ_BASE_EXTRAS_METHOD_NAME = "readBaseExtras";
+    @NonNls
+    static final String WRITE_EXTRAS_METHOD_NAME = "writeExtras";
+    @NonNls
+    static final String BUILD_METHOD_NAME = "build";
+    @NonNls
+    private static final String SELF_METHOD_NAME = "self";
+    @NonNls
+    private static final String EXTRAS_EQUALS_METHOD_NAME = "extrasEquals";
+    @NonNls
+    private static final String EXTRAS_HASH_METHOD_NAME = "extrasHash";
+    @NonNls
+    private static final String COPY_EXTRAS_METHOD_NAME = "copyExtras";
+    @NonNls
+    private static final String SNAPSHOT_METHOD_NAME = "snapshot";
+    @NonNls
+    private static final String EQUALS_SNAPSHOT_METHOD_NAME = "equalsSnapshot";
+    @NonNls
+    private static final String EXTRAS_EQUAL_SNAPSHOT_METHOD_NAME = "extrasEqualSnapshot";
+    @NonNls
+    private static final String LAUNCH_GUARD_HANDLER_FIELD_NAME = "LAUNCH_GUARD_HANDLER";
+    @NonNls
+    private static final String RELEASE_LAST_LAUNCH_FIELD_NAME = "RELEASE_LAST_LAUNCH";
+    @NonNls
+    private static final String LAUNCH_METHOD_NAME = "launch";
     @NonNls
     private static final String BUILD_STEP_INTERFACE_NAME = "Build";
     @NonNls
@@ -35,58 +92,149 @@ public class IntentBuilderGenerator implements Runnable {
     private static final String BUILDER_SETTER_ALTERNATIVE_PARAMETER_NAME = "value";
     @NonNls
     private static final String OVERRIDE_ANNOTATION = "java.lang.Override";
+    @NonNls
+    private static final String REPORT_PAYLOAD_SIZE_METHOD_NAME = "reportPayloadSize";
+    @NonNls
+    private static final String PARCEL_SIZE_METHOD_NAME = "parcelSize";
 
     private final Project project;
     private final PsiFile file;
-    private final Editor editor;
-    private final List<PsiFieldMember> mandatoryFields;
+    private final PsiClass targetClass;
+    private final IntentBuilderSpec spec;
+    private final boolean generateBase;
+    private final List<IntentBuilderSpec.Field> mandatoryFields;
     private final PsiElementFactory psiElementFactory;
+    /**
+     * The generated inner classes of a previous generation by name, replaced in place by their new version.
+     */
+    private final Map<String, PsiClass> previousClasses = new HashMap<String, PsiClass>();
+    private PsiElement lastPlacedClass;
     private PsiClass builderClass;
-    private PsiType contextType;
     private PsiType intentType;
     private PsiType builderType;
-    private Map<String, String[]> tagsMap;
 
-    private IntentBuilderGenerator(final Project project, final PsiFile file, final Editor editor,
-                                 final List<PsiFieldMember> mandatoryFields, final Map<String, String[]> tags) {
+    /**
+     * @param targetClass the class to generate into, null for the class the spec was computed from
+     */
+    private IntentBuilderGenerator(final Project project, final PsiFile file, @Nullable final PsiClass targetClass,
+                                   final IntentBuilderSpec spec, final boolean generateBase) {
         this.project = project;
         this.file = file;
-        this.editor = editor;
-        this.mandatoryFields = mandatoryFields;
+        this.targetClass = targetClass;
+        this.spec = spec;
+        this.generateBase = generateBase;
+        this.mandatoryFields = spec.getFields();
         psiElementFactory = JavaPsiFacade.getInstance(project).getElementFactory();
-        tagsMap = tags;
     }
 
-    public static void generate(final Project project, final Editor editor, final PsiFile file,
-                                final List<PsiFieldMember> selectedFields, Map<String, String[]> tags) {
-        final Runnable builderGenerator = new IntentBuilderGenerator(project, file, editor, selectedFields, tags);
-        ApplicationManager.getApplication().runWriteAction(builderGenerator);
+    /**
+     * Applies a spec computed by {@link IntentBuilderSpec#computeInBackground}, the write action only
+     * creates and inserts PSI.
+     */
+    public static void generate(final Project project, final PsiFile file, final IntentBuilderSpec spec) {
+        final Runnable builderGenerator = new IntentBuilderGenerator(project, file, null, spec, true);
+
+        // one undoable command; formatting and document sync are postponed until all PSI changes are done
+        final long start = System.nanoTime();
+        WriteCommandAction.runWriteCommandAction(project, COMMAND_NAME, null,
+                () -> PostprocessReformattingAspect.getInstance(project).postponeFormattingInside(builderGenerator),
+                generatedFiles(file, spec));
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("Intent Builder generated in %d ms", (System.nanoTime() - start) / 1000000L));
+        }
+    }
+
+    /**
+     * Applies a spec the way generation ran before it became a single command with postponed formatting:
+     * a plain write action in the command of the caller. The baseline of IntentBuilderBenchmarkTest.
+     */
+    @TestOnly
+    static void generateWithoutPostponedFormatting(final Project project, final PsiFile file,
+                                                   final IntentBuilderSpec spec) {
+        final Runnable builderGenerator = new IntentBuilderGenerator(project, file, null, spec, true);
+        CommandProcessor.getInstance().executeCommand(project,
+                () -> ApplicationManager.getApplication().runWriteAction(builderGenerator), COMMAND_NAME, null);
     }
 
-    private static EnumSet<IntentBuilderOption> currentOptions() {
-        final EnumSet<IntentBuilderOption> options = EnumSet.noneOf(IntentBuilderOption.class);
-        final PropertiesComponent propertiesComponent = PropertiesComponent.getInstance();
-        for (final IntentBuilderOption option : IntentBuilderOption.values()) {
-            final boolean currentSetting = propertiesComponent.getBoolean(option.getProperty(), false);
-            if (currentSetting) {
-                options.add(option);
+    /**
+     * Applies a spec in an undo transparent action, for a regeneration the user did not ask for: undo right
+     * after it reverts the user's own last edit. Nothing is generated if a file is read only.
+     */
+    static void generateUndoTransparent(final Project project, final PsiFile file, final IntentBuilderSpec spec) {
+        for (final PsiFile generatedFile : generatedFiles(file, spec)) {
+            if (!generatedFile.isWritable()) {
+                return;
             }
         }
-        return options;
+
+        final Runnable builderGenerator = new IntentBuilderGenerator(project, file, null, spec, true);
+        CommandProcessor.getInstance().runUndoTransparentAction(() -> ApplicationManager.getApplication()
+                .runWriteAction(() -> PostprocessReformattingAspect.getInstance(project)
+                        .postponeFormattingInside(builderGenerator)));
+    }
+
+    /**
+     * @return the file of the class, and the file of its base class when the base builder is generated
+     */
+    private static PsiFile[] generatedFiles(final PsiFile file, final IntentBuilderSpec spec) {
+        final PsiClass baseClass = spec.getBaseSpec() != null ? spec.getBaseSpec().getTopLevelClass() : null;
+        return baseClass != null && baseClass.getContainingFile() != file
+                ? new PsiFile[]{file, baseClass.getContainingFile()} : new PsiFile[]{file};
+    }
+
+    /**
+     * Applies a spec to a class of a non physical copy of a file, eg. to compare the output with the file on
+     * disk. The spec must be computed from that class. The base builder of a base class in the same file is
+     * generated in the copy too, one in another file is left to {@link #generateBaseInCopy}.
+     */
+    static void generateInCopy(final Project project, final PsiFile copy, final PsiClass copyClass,
+                               final IntentBuilderSpec spec) {
+        final PsiClass baseClass = spec.getBaseSpec() != null ? spec.getBaseSpec().getTopLevelClass() : null;
+        final Runnable builderGenerator = new IntentBuilderGenerator(project, copy, copyClass, spec,
+                baseClass != null && baseClass.getContainingFile() == copy);
+        ApplicationManager.getApplication().runWriteAction(
+                () -> PostprocessReformattingAspect.getInstance(project).postponeFormattingInside(builderGenerator));
+    }
+
+    /**
+     * Applies the spec of a base class, {@link IntentBuilderSpec#getBaseSpec()}, to its class in a non
+     * physical copy of its file.
+     */
+    static void generateBaseInCopy(final Project project, final PsiFile copy, final PsiClass copyClass,
+                                   final IntentBuilderSpec baseSpec) {
+        final IntentBuilderGenerator baseGenerator = new IntentBuilderGenerator(project, copy, copyClass, baseSpec,
+                false);
+        ApplicationManager.getApplication().runWriteAction(() -> PostprocessReformattingAspect.getInstance(project)
+                .postponeFormattingInside(() -> baseGenerator.generateBaseBuilder(copyClass)));
     }
 
     @Override
     public void run() {
-        final PsiClass topLevelClass = IntentBuilderUtils.getTopLevelClass(project, file, editor);
+        final PsiClass topLevelClass = targetClass != null ? targetClass : spec.getTopLevelClass();
         if (topLevelClass == null) {
             return;
         }
 
-        final Set<IntentBuilderOption> options = currentOptions();
+        final Set<IntentBuilderOption> options = spec.getOptions();
+
+        final List<IntentBuilderSpec.Field> finalFields = new ArrayList<IntentBuilderSpec.Field>();
+        final List<IntentBuilderSpec.Field> nonFinalFields = new ArrayList<IntentBuilderSpec.Field>();
+        final List<IntentBuilderSpec.Field> mandatoryNonFinalFields = new ArrayList<IntentBuilderSpec.Field>();
 
-        final List<PsiFieldMember> finalFields = new ArrayList<PsiFieldMember>();
-        final List<PsiFieldMember> nonFinalFields = new ArrayList<PsiFieldMember>();
-        final List<PsiFieldMember> mandatoryNonFinalFields = new ArrayList<PsiFieldMember>();
+        //a previously generated builder is replaced in place so regenerating neither duplicates nor moves it,
+        //its fields tell which fields the previous generation covered
+        final Set<String> previousFieldNames = collectGeneratedBuilder(topLevelClass);
+
+        //key constants shared by build() and the reading constructor
+        addKeyConstants(topLevelClass);
+
+        //generic builder of the inherited fields in the base class, extended by the Builder
+        final IntentBuilderSpec baseSpec = spec.getBaseSpec();
+        final PsiClass baseClass = baseSpec != null ? baseSpec.getTopLevelClass() : null;
+        if (baseClass != null && generateBase) {
+            new IntentBuilderGenerator(project, baseClass.getContainingFile(), baseClass, baseSpec, false)
+                    .generateBaseBuilder(baseClass);
+        }
 
         //generate the interfaces
         final PsiClass interfaceClass = createBuildStepInterface(options.contains(IntentBuilderOption.PUBLIC_INTERFACES));
@@ -94,26 +242,35 @@ public class IntentBuilderGenerator implements Runnable {
 
         //add build method
         PsiMethod methodStatement = psiElementFactory.createMethodFromText(String.format("%s %s(%s %s);"
-                , INTENT_CLASS_NAME, "build", CONTEXT_CLASS_NAME, "context"), interfaceClass);
+                , INTENT_CLASS_NAME, BUILD_METHOD_NAME, CONTEXT_CLASS_NAME, "context"), interfaceClass);
 
         interfaceClass.add(methodStatement);
-        topLevelClass.add(interfaceClass);
+        if (options.contains(IntentBuilderOption.LAUNCH_GUARD)) {
+            interfaceClass.add(psiElementFactory.createMethodFromText(String.format("boolean %s(%s %s);",
+                    LAUNCH_METHOD_NAME, CONTEXT_CLASS_NAME, "context"), interfaceClass));
+        }
+        if (baseClass != null && interfaceClass.getExtendsList() != null) {
+            // the optional setters of the inherited fields, available on the last step
+            interfaceClass.getExtendsList().add(psiElementFactory.createReferenceFromText(String.format("%s.%s<%s>",
+                    baseClass.getQualifiedName(), BASE_INTERFACE_NAME, interfaceClass.getName()), interfaceClass));
+        }
+        placeGeneratedClass(topLevelClass, interfaceClass);
 
-        //generate mandatory interfaces
+        //generate mandatory interfaces, each step returns the next one so they are built from the last field
         final List<PsiClassType> mandatoryInterfaceTypes = new ArrayList<PsiClassType>();
-        if(mandatoryFields != null && !mandatoryFields.isEmpty()){
+        final List<PsiClass> mandatoryInterfaces = new ArrayList<PsiClass>();
+        if(!mandatoryFields.isEmpty()){
             PsiClassType returnType = interfaceType;
 
             for(int i = mandatoryFields.size() - 1; i >= 0; i--) {
-                PsiFieldMember fieldMember = mandatoryFields.get(i);
-                if (!fieldMember.getElement().hasModifierProperty(PsiModifier.FINAL)
-                        || options.contains(IntentBuilderOption.FINAL_SETTERS)) {
+                IntentBuilderSpec.Field fieldMember = mandatoryFields.get(i);
+                if (fieldMember.isStep()) {
 
                     nonFinalFields.add(fieldMember);
                     mandatoryNonFinalFields.add(fieldMember);
 
                     PsiClass mInterface = generateMandatoryInterface(fieldMember, returnType, options.contains(IntentBuilderOption.PUBLIC_INTERFACES));
-                    topLevelClass.add(mInterface);
+                    mandatoryInterfaces.add(0, mInterface);
 
                     returnType = psiElementFactory.createType(mInterface);
                     mandatoryInterfaceTypes.add(returnType);
@@ -124,24 +281,44 @@ public class IntentBuilderGenerator implements Runnable {
             }
         }
 
+        //but are declared in field order
+        for (final PsiClass mInterface : mandatoryInterfaces) {
+            placeGeneratedClass(topLevelClass, mInterface);
+        }
+
         //create builder class
-        builderClass = findOrCreateBuilderClass(topLevelClass, mandatoryInterfaceTypes, interfaceType);
-        contextType = psiElementFactory.createTypeFromText(CONTEXT_CLASS_NAME, null);
+        final List<PsiClassType> implementedTypes = new ArrayList<PsiClassType>(mandatoryInterfaceTypes);
+        implementedTypes.add(interfaceType);
+        builderClass = createBuilderClass(topLevelClass, implementedTypes);
+        removeUnplacedClasses();
+        if (baseClass != null && builderClass.getExtendsList() != null) {
+            builderClass.getExtendsList().add(psiElementFactory.createReferenceFromText(String.format("%s.%s<%s>",
+                    baseClass.getQualifiedName(), BASE_BUILDER_CLASS_NAME, BUILDER_CLASS_NAME), builderClass));
+            builderClass.add(psiElementFactory.createMethodFromText(String.format(
+                    "@%s protected %s %s() {\nreturn this;\n}", OVERRIDE_ANNOTATION, BUILDER_CLASS_NAME,
+                    SELF_METHOD_NAME), builderClass));
+        }
         intentType = psiElementFactory.createTypeFromText(INTENT_CLASS_NAME, null);
         builderType = psiElementFactory.createTypeFromText(BUILDER_CLASS_NAME, null);
 
+        //record the fields the builder was generated from, checked by IntentBuilderOutOfSyncInspection
+        final PsiField fingerprintField = psiElementFactory.createFieldFromText(String.format(
+                "private static final String %s = \"%s\";", FINGERPRINT_FIELD_NAME, spec.getFingerprint()),
+                builderClass);
+        builderClass.add(fingerprintField);
+
         //add a constructor to the class
         final PsiMethod constructor = generateConstructor(topLevelClass, intentType);
         addMethod(topLevelClass, null, constructor, true);
 
-        //add the fields in Builder
+        //add the fields in Builder, in field order
         PsiElement lastAddedField = null;
-        for (final PsiFieldMember fieldMember : nonFinalFields) {
-            lastAddedField = findOrCreateField(builderClass, fieldMember, lastAddedField);
+        for (int i = nonFinalFields.size() - 1; i >= 0; i--) {
+            lastAddedField = findOrCreateField(builderClass, nonFinalFields.get(i), lastAddedField);
         }
 
-        for (final PsiFieldMember fieldMember : finalFields) {
-            lastAddedField = findOrCreateField(builderClass, fieldMember, lastAddedField);
+        for (int i = finalFields.size() - 1; i >= 0; i--) {
+            lastAddedField = findOrCreateField(builderClass, finalFields.get(i), lastAddedField);
             PsiUtil.setModifierProperty((PsiField) lastAddedField, PsiModifier.FINAL, true);
         }
 
@@ -163,41 +340,166 @@ public class IntentBuilderGenerator implements Runnable {
         if(!mandatoryNonFinalFields.isEmpty()) {
             PsiClassType returnType = interfaceType;
 
+            final List<PsiMethod> setterMethods = new ArrayList<PsiMethod>();
             for (int i = 0; i < mandatoryNonFinalFields.size(); i++) {
-                final PsiFieldMember member = mandatoryNonFinalFields.get(i);
-                final PsiMethod setterMethod = generateBuilderSetter(returnType, member, options);
-                lastAddedElement = addMethod(builderClass, lastAddedElement, setterMethod, false);
+                final IntentBuilderSpec.Field member = mandatoryNonFinalFields.get(i);
+                setterMethods.add(0, generateBuilderSetter(returnType, member, options));
                 returnType = mandatoryInterfaceTypes.get(i);
             }
 
+            for (final PsiMethod setterMethod : setterMethods) {
+                lastAddedElement = addMethod(builderClass, lastAddedElement, setterMethod, false);
+            }
+
             lastInterfaceType = returnType;
         } else {
             lastInterfaceType = interfaceType;
         }
 
-        //generate the static builder method
+        //generate the static builder method, replacing the previous one even if its parameters changed
         final PsiMethod newBuilderMethod = generateNewBuilderMethod(builderType, finalFields, options, lastInterfaceType);
-        addMethod(topLevelClass, null, newBuilderMethod, false);
+        replaceBuilderMethods(topLevelClass, newBuilderMethod);
 
         // builder.build() method
         final PsiMethod buildMethod = generateBuildMethod(topLevelClass, builderClass);
-        addMethod(builderClass, lastAddedElement, buildMethod, false);
+        final PsiElement addedBuildMethod = addMethod(builderClass, lastAddedElement, buildMethod, false);
+
+        // value equality of the extras and the launch guard relying on it
+        if (options.contains(IntentBuilderOption.LAUNCH_GUARD)) {
+            PsiElement lastGuardElement = addMethod(builderClass, addedBuildMethod, generateLaunchMethod(), true);
+            lastGuardElement = addMethod(builderClass, lastGuardElement, generateEqualsMethod(), true);
+            lastGuardElement = addMethod(builderClass, lastGuardElement, generateHashCodeMethod(), true);
+            lastGuardElement = addMethod(builderClass, lastGuardElement,
+                    generateSnapshotMethod(finalFields, nonFinalFields), true);
+            addMethod(builderClass, lastGuardElement, generateEqualsSnapshotMethod(), true);
+        }
 
-        //generate getters for parent class
-        if(mandatoryFields != null && !mandatoryFields.isEmpty()){
-            for(int i = mandatoryFields.size() - 1; i >= 0; i--) {
-                PsiFieldMember fieldMember = mandatoryFields.get(i);
-                String type = fieldMember.getText().split(":")[1];
-                PsiType memberType = psiElementFactory.createTypeFromText(type, null);
-                PsiMethod getterMethod = generateGetterMethod(fieldMember, memberType);
-                topLevelClass.add(getterMethod);
+        // debug only measurement of the extras written by build()
+        if (spec.getDebugFlag() != null) {
+            final PsiElement reportMethod = addMethod(builderClass, addedBuildMethod,
+                    generateReportPayloadSizeMethod(topLevelClass), false);
+            addMethod(builderClass, reportMethod, generateParcelSizeMethod(), false);
+        }
+
+        // compressed and shared memory extras, kept encoded until their getter decodes them
+        addHolders(topLevelClass);
+
+        //generate getters for parent class, in field order
+        if(!mandatoryFields.isEmpty()){
+            for (final IntentBuilderSpec.Field fieldMember : mandatoryFields) {
+                PsiMethod getterMethod = generateGetterMethod(fieldMember, topLevelClass);
+                if (getterMethod != null) {
+                    addMethod(topLevelClass, null, getterMethod, true);
+                }
             }
         }
 
-        JavaCodeStyleManager.getInstance(project).shortenClassReferences(file);
+        removeStaleMembers(topLevelClass, previousFieldNames);
+
+        shortenClassReferences();
         CodeStyleManager.getInstance(project).reformat(builderClass);
     }
 
+    /**
+     * Generates the builder of the inherited fields in the base class: {@code IExtras<S>} declaring their
+     * setters, {@code ExtrasBuilder<B>} defining them and writing the extras, and readBaseExtras
+     * reading them back. The Builder of every subclass extends ExtrasBuilder, so the inherited extras are
+     * generated once per hierarchy.
+     */
+    private void generateBaseBuilder(final PsiClass baseClass) {
+        final Set<String> previousFieldNames = new HashSet<String>();
+        for (final String generatedClassName : new String[]{BASE_INTERFACE_NAME, BASE_BUILDER_CLASS_NAME}) {
+            final PsiClass existingClass = baseClass.findInnerClassByName(generatedClassName, false);
+            if (existingClass != null) {
+                previousFieldNames.addAll(instanceFieldNames(existingClass));
+                previousClasses.put(generatedClassName, existingClass);
+            }
+        }
+
+        addKeyConstants(baseClass);
+
+        final ExtraContainer container = IntentBuilderSpec.containerFor(spec.getOptions());
+        final StringBuilder interfaceText = new StringBuilder();
+        final StringBuilder builderText = new StringBuilder();
+        final StringBuilder readText = new StringBuilder();
+        interfaceText.append(String.format("public interface %s<S> {", BASE_INTERFACE_NAME));
+        // ExtrasBuilder does not implement IExtras<B>: the subclass Builder gets IExtras<IBuild> through its
+        // last step and a class cannot implement one interface with two type arguments
+        builderText.append(String.format("public abstract static class %1$s<B extends %1$s<B>> {",
+                BASE_BUILDER_CLASS_NAME));
+        builderText.append(String.format("private static final String %s = \"%s\";", FINGERPRINT_FIELD_NAME,
+                spec.getFingerprint()));
+        readText.append(String.format("protected final void %s(%s %s) {", READ_BASE_EXTRAS_METHOD_NAME,
+                container.getTypeName(), container.getVariable()));
+        for (final IntentBuilderSpec.Field field : mandatoryFields) {
+            builderText.append(String.format("private %s %s;", field.getTypeText(), field.getName()));
+        }
+        for (final IntentBuilderSpec.Field field : mandatoryFields) {
+            interfaceText.append(String.format("S %s(%s %s);", setterName(field), field.getTypeText(),
+                    field.getName()));
+            builderText.append(String.format("public B %1$s(%2$s %3$s) { this.%3$s = %3$s; return %4$s(); }",
+                    setterName(field), field.getTypeText(), field.getName(), SELF_METHOD_NAME));
+            readText.append(String.format("%s = %s;", field.getHolder() != null
+                    ? field.getHolder() : field.getName(), field.getReadExpression()));
+        }
+        builderText.append(String.format("protected abstract B %s();", SELF_METHOD_NAME));
+        builderText.append(String.format("protected void %s(%s %s) {", WRITE_EXTRAS_METHOD_NAME,
+                container.getTypeName(), container.getVariable()));
+        for (final IntentBuilderSpec.Extra extra : spec.getExtras()) {
+            builderText.append(extra.getPutStatement());
+        }
+        builderText.append("}");
+        appendBaseExtrasMethods(builderText);
+        interfaceText.append("}");
+        builderText.append("}");
+        readText.append("}");
+
+        placeGeneratedClass(baseClass,
+                psiElementFactory.createClassFromText(interfaceText.toString(), baseClass).getInnerClasses()[0]);
+        final PsiElement baseBuilderClass = placeGeneratedClass(baseClass,
+                psiElementFactory.createClassFromText(builderText.toString(), baseClass).getInnerClasses()[0]);
+        addMethod(baseClass, null, psiElementFactory.createMethodFromText(readText.toString(), baseClass), true);
+
+        addHolders(baseClass);
+
+        for (final IntentBuilderSpec.Field field : mandatoryFields) {
+            final PsiMethod getterMethod = generateGetterMethod(field, baseClass);
+            if (getterMethod != null) {
+                addMethod(baseClass, null, getterMethod, true);
+            }
+        }
+
+        removeStaleMembers(baseClass, previousFieldNames);
+
+        shortenClassReferences();
+        CodeStyleManager.getInstance(project).reformat(baseBuilderClass);
+    }
+
+    private void shortenClassReferences() {
+        //references are generated qualified, shortening them resolves so it waits for indexing to finish
+        if (DumbService.isDumb(project)) {
+            shortenClassReferencesWhenSmart();
+        } else {
+            JavaCodeStyleManager.getInstance(project).shortenClassReferences(file);
+        }
+    }
+
+    private void shortenClassReferencesWhenSmart() {
+        final SmartPsiElementPointer<PsiFile> pointer =
+                SmartPointerManager.getInstance(project).createSmartPsiElementPointer(file);
+        DumbService.getInstance(project).runWhenSmart(() -> {
+            final PsiFile smartFile = pointer.getElement();
+            if (smartFile != null && smartFile.isPhysical()) {
+                WriteCommandAction.runWriteCommandAction(project, COMMAND_NAME, null,
+                        () -> JavaCodeStyleManager.getInstance(project).shortenClassReferences(smartFile), smartFile);
+            }
+        });
+    }
+
+    private PsiType createFieldType(final IntentBuilderSpec.Field field, final PsiElement context) {
+        return psiElementFactory.createTypeFromText(field.getTypeText(), context);
+    }
+
     private PsiClass createBuildStepInterface(boolean isPublic){
         PsiClass buildStep =  psiElementFactory.createInterface(INTERFACE_NAME_PREFIX + BUILD_STEP_INTERFACE_NAME);
         if(buildStep.getModifierList() != null){
@@ -207,10 +509,9 @@ public class IntentBuilderGenerator implements Runnable {
         return buildStep;
     }
 
-    private PsiClass generateMandatoryInterface(PsiFieldMember forMember, PsiType returnType, boolean isPublic){
-        String capitalizedFieldName = IntentBuilderUtils.capitalize(forMember.getElement().getName());
-        String methodName = String.format("with%s", capitalizedFieldName);
-        String paramName = BUILDER_SETTER_DEFAULT_PARAMETER_NAME.equals(forMember.getElement().getName())?
+    private PsiClass generateMandatoryInterface(IntentBuilderSpec.Field forMember, PsiType returnType, boolean isPublic){
+        String capitalizedFieldName = IntentBuilderUtils.capitalize(forMember.getName());
+        String paramName = BUILDER_SETTER_DEFAULT_PARAMETER_NAME.equals(forMember.getName())?
                 BUILDER_SETTER_ALTERNATIVE_PARAMETER_NAME:BUILDER_SETTER_DEFAULT_PARAMETER_NAME;
 
         PsiClass mInterface = psiElementFactory.createInterface(INTERFACE_NAME_PREFIX + capitalizedFieldName);
@@ -218,16 +519,28 @@ public class IntentBuilderGenerator implements Runnable {
             mInterface.getModifierList().setModifierProperty(PsiModifier.PUBLIC, isPublic);
         }
 
-        PsiMethod fieldMethod = psiElementFactory.createMethodFromText(String.format("%s %s(%s %s);", returnType.getPresentableText(),
-                methodName, forMember.getElement().getType().getPresentableText(), paramName), mInterface);
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("returnType", returnType.getPresentableText());
+        values.put("methodName", setterName(forMember));
+        values.put("type", forMember.getTypeText());
+        values.put("param", paramName);
+        PsiMethod fieldMethod = psiElementFactory.createMethodFromText(
+                IntentBuilderTemplates.get(project, IntentBuilderTemplate.STEP_METHOD).render(values), mInterface);
 
         mInterface.add(fieldMethod);
         return mInterface;
     }
 
+    private String setterName(final IntentBuilderSpec.Field field) {
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("name", field.getName());
+        values.put("Name", IntentBuilderUtils.capitalize(field.getName()));
+        return IntentBuilderTemplates.get(project, IntentBuilderTemplate.SETTER_NAME).render(values).trim();
+    }
+
     private PsiMethod generateCopyBuilderMethod(final PsiClass topLevelClass, final PsiType builderType,
-                                                final Collection<PsiFieldMember> finalFields,
-                                                final Collection<PsiFieldMember> nonFinalfields,
+                                                final Collection<IntentBuilderSpec.Field> finalFields,
+                                                final Collection<IntentBuilderSpec.Field> nonFinalfields,
                                                 final Set<IntentBuilderOption> options) {
         //create the method
         final PsiMethod copyBuilderMethod = psiElementFactory.createMethod("newBuilder", builderType);
@@ -237,7 +550,6 @@ public class IntentBuilderGenerator implements Runnable {
         //add method parameter
         final PsiType topLevelClassType = psiElementFactory.createType(topLevelClass);
         final PsiParameter parameter = psiElementFactory.createParameter("copy", topLevelClassType);
-        final PsiModifierList parameterModifierList = parameter.getModifierList();
 
         copyBuilderMethod.getParameterList().add(parameter);
 
@@ -245,12 +557,12 @@ public class IntentBuilderGenerator implements Runnable {
         final PsiCodeBlock copyBuilderBody = copyBuilderMethod.getBody();
         if (copyBuilderBody != null) {
             final StringBuilder copyBuilderParameters = new StringBuilder();
-            for (final PsiFieldMember fieldMember : finalFields) {
+            for (final IntentBuilderSpec.Field fieldMember : finalFields) {
                 if (copyBuilderParameters.length() > 0) {
                     copyBuilderParameters.append(", ");
                 }
 
-                copyBuilderParameters.append(String.format("copy.%s", fieldMember.getElement().getName()));
+                copyBuilderParameters.append(String.format("copy.%s", fieldMember.getName()));
             }
 
             final PsiStatement newBuilderStatement = psiElementFactory.createStatementFromText(String.format(
@@ -265,13 +577,12 @@ public class IntentBuilderGenerator implements Runnable {
         return copyBuilderMethod;
     }
 
-     private void addCopyBody(final Collection<PsiFieldMember> fields, final PsiMethod method, final String qName) {
+     private void addCopyBody(final Collection<IntentBuilderSpec.Field> fields, final PsiMethod method, final String qName) {
         final PsiCodeBlock methodBody = method.getBody();
         if (methodBody == null) {
             return;
         }
-        for (final PsiFieldMember member : fields) {
-            final PsiField field = member.getElement();
+        for (final IntentBuilderSpec.Field field : fields) {
             final PsiStatement assignStatement = psiElementFactory.createStatementFromText(String.format(
                     "%s%2$s = copy.%2$s;", qName, field.getName()), method);
             methodBody.add(assignStatement);
@@ -279,7 +590,7 @@ public class IntentBuilderGenerator implements Runnable {
     }
 
     private PsiMethod generateBuilderConstructor(final PsiClass builderClass,
-                                                 final Collection<PsiFieldMember> finalFields,
+                                                 final Collection<IntentBuilderSpec.Field> finalFields,
                                                  final Set<IntentBuilderOption> options) {
 
         final PsiMethod builderConstructor = psiElementFactory.createConstructor(builderClass.getName());
@@ -287,13 +598,11 @@ public class IntentBuilderGenerator implements Runnable {
 
         final PsiCodeBlock builderConstructorBody = builderConstructor.getBody();
         if (builderConstructorBody != null) {
-            for (final PsiFieldMember member : finalFields) {
-                final PsiField field = member.getElement();
-                final PsiType fieldType = field.getType();
+            for (final IntentBuilderSpec.Field field : finalFields) {
+                final PsiType fieldType = createFieldType(field, builderClass);
                 final String fieldName = field.getName();
 
                 final PsiParameter parameter = psiElementFactory.createParameter(fieldName, fieldType);
-                final PsiModifierList parameterModifierList = parameter.getModifierList();
 
                 builderConstructor.getParameterList().add(parameter);
                 final PsiStatement assignStatement = psiElementFactory.createStatementFromText(String.format(
@@ -305,70 +614,44 @@ public class IntentBuilderGenerator implements Runnable {
         return builderConstructor;
     }
 
-    private PsiMethod generateNewBuilderMethod(final PsiType builderType, final Collection<PsiFieldMember> finalFields,
+    private PsiMethod generateNewBuilderMethod(final PsiType builderType,
+                                               final Collection<IntentBuilderSpec.Field> finalFields,
                                                final Set<IntentBuilderOption> options, final PsiType returnType) {
-        final PsiMethod newBuilderMethod = psiElementFactory.createMethod("builder", returnType);
-        PsiUtil.setModifierProperty(newBuilderMethod, PsiModifier.STATIC, true);
-        PsiUtil.setModifierProperty(newBuilderMethod, PsiModifier.PUBLIC, true);
-
+        final StringBuilder parameterList = new StringBuilder();
         final StringBuilder fieldList = new StringBuilder();
-        if (!finalFields.isEmpty()) {
-            for (final PsiFieldMember member : finalFields) {
-                final PsiField field = member.getElement();
-                final PsiType fieldType = field.getType();
-                final String fieldName = field.getName();
-
-                final PsiParameter parameter = psiElementFactory.createParameter(fieldName, fieldType);
-                final PsiModifierList parameterModifierList = parameter.getModifierList();
-
-                newBuilderMethod.getParameterList().add(parameter);
-                if (fieldList.length() > 0) {
-                    fieldList.append(", ");
-                }
-                fieldList.append(fieldName);
+        for (final IntentBuilderSpec.Field field : finalFields) {
+            if (fieldList.length() > 0) {
+                parameterList.append(", ");
+                fieldList.append(", ");
             }
+            parameterList.append(field.getTypeText()).append(' ').append(field.getName());
+            fieldList.append(field.getName());
         }
-        final PsiCodeBlock newBuilderMethodBody = newBuilderMethod.getBody();
-        if (newBuilderMethodBody != null) {
-            final PsiStatement newStatement = psiElementFactory.createStatementFromText(String.format(
-                    "return new %s(%s);", builderType.getPresentableText(), fieldList.toString()),
-                    newBuilderMethod);
-            newBuilderMethodBody.add(newStatement);
-        }
-        return newBuilderMethod;
+
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("returnType", returnType.getPresentableText());
+        values.put("params", parameterList.toString());
+        values.put("builder", builderType.getPresentableText());
+        values.put("args", fieldList.toString());
+        return psiElementFactory.createMethodFromText(
+                IntentBuilderTemplates.get(project, IntentBuilderTemplate.NEW_BUILDER).render(values), builderClass);
     }
 
-    private PsiMethod generateBuilderSetter(final PsiType returnType, final PsiFieldMember member,
+    private PsiMethod generateBuilderSetter(final PsiType returnType, final IntentBuilderSpec.Field field,
                                             final Set<IntentBuilderOption> options) {
-
-        final PsiField field = member.getElement();
-        final PsiType fieldType = field.getType();
         final String fieldName = field.getName();
-
-        final String methodName = String.format("with%s", IntentBuilderUtils.capitalize(fieldName));
-
         final String parameterName = !BUILDER_SETTER_DEFAULT_PARAMETER_NAME.equals(fieldName) ?
                 BUILDER_SETTER_DEFAULT_PARAMETER_NAME :
                 BUILDER_SETTER_ALTERNATIVE_PARAMETER_NAME;
-        final PsiMethod setterMethod = psiElementFactory.createMethod(methodName, returnType);
 
-        setterMethod.getModifierList().addAnnotation(OVERRIDE_ANNOTATION);
-
-        setterMethod.getModifierList().setModifierProperty(PsiModifier.PUBLIC, true);
-        final PsiParameter setterParameter = psiElementFactory.createParameter(parameterName, fieldType);
-
-        if (!(fieldType instanceof PsiPrimitiveType)) {
-            final PsiModifierList setterParameterModifierList = setterParameter.getModifierList();
-        }
-        setterMethod.getParameterList().add(setterParameter);
-        final PsiCodeBlock setterMethodBody = setterMethod.getBody();
-        if (setterMethodBody != null) {
-            final PsiStatement assignStatement = psiElementFactory.createStatementFromText(String.format(
-                    "%s = %s;", fieldName, parameterName), setterMethod);
-            setterMethodBody.add(assignStatement);
-            setterMethodBody.add(IntentBuilderUtils.createReturnThis(psiElementFactory, setterMethod));
-        }
-        return setterMethod;
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("returnType", returnType.getPresentableText());
+        values.put("methodName", setterName(field));
+        values.put("type", field.getTypeText());
+        values.put("param", parameterName);
+        values.put("field", fieldName);
+        return psiElementFactory.createMethodFromText(
+                IntentBuilderTemplates.get(project, IntentBuilderTemplate.SETTER).render(values), builderClass);
     }
 
     private PsiMethod generateConstructor(final PsiClass topLevelClass, final PsiType builderType) {
@@ -384,138 +667,764 @@ public class IntentBuilderGenerator implements Runnable {
 
         if (constructorBody != null) {
             constructorBody.add(ifStatement);
-            for (final PsiFieldMember member : mandatoryFields) {
-                final PsiField field = member.getElement();
-
-                final PsiMethod setterPrototype = PropertyUtil.generateSetterPrototype(field);
-                final PsiMethod setter = topLevelClass.findMethodBySignature(setterPrototype, true);
-
+            if (spec.hasOption(IntentBuilderOption.BUNDLE_EXTRAS)) {
+                // getExtras() copies the extras, fetch them once and read every field from the copy
+                bracesCodeBlock.add(psiElementFactory.createStatementFromText(String.format(
+                        "android.os.Bundle %s = intent.getExtras();", ExtraContainer.BUNDLE.getVariable()), null));
+                bracesCodeBlock.add(psiElementFactory.createStatementFromText(String.format(
+                        "if (%1$s == null) { %1$s = android.os.Bundle.EMPTY; }", ExtraContainer.BUNDLE.getVariable()),
+                        null));
+            }
+            if (spec.getBaseSpec() != null) {
+                bracesCodeBlock.add(psiElementFactory.createStatementFromText(String.format("%s(%s);",
+                        READ_BASE_EXTRAS_METHOD_NAME, IntentBuilderSpec.containerFor(spec.getOptions()).getVariable()),
+                        null));
+            }
+            for (final IntentBuilderSpec.Field field : mandatoryFields) {
                 final String fieldName = field.getName();
-                boolean isFinal = false;
-                final PsiModifierList modifierList = field.getModifierList();
-                if (modifierList != null) {
-                    isFinal = modifierList.hasModifierProperty(PsiModifier.FINAL);
-                }
 
                 final String assignText;
-                if (setter == null || isFinal) {
-                    assignText = String.format("%s = %s;", fieldName, generateIntentTag(fieldName));
+                if (field.getHolder() != null) {
+                    assignText = String.format("%s = %s;", field.getHolder(), field.getReadExpression());
+                } else if (field.getSetterName() == null || field.isDeclaredFinal()) {
+                    assignText = String.format("%s = %s;", fieldName, field.getReadExpression());
                 } else {
-                    assignText = String.format("%s(builder.%s);", setter.getName(), fieldName);
+                    assignText = String.format("%s(%s);", field.getSetterName(), field.getReadExpression());
                 }
 
                 final PsiStatement assignStatement = psiElementFactory.createStatementFromText(assignText, null);
                 bracesCodeBlock.add(assignStatement);
             }
-            constructorBody.add(bracesCodeBlock);
+            if (spec.hasOption(IntentBuilderOption.TRACE_SECTIONS)) {
+                final String statements = bracesCodeBlock.getText();
+                constructorBody.add(psiElementFactory.createCodeBlockFromText(String.format("{%s}",
+                        traceSection(topLevelClass.getName() + ".readExtras",
+                                statements.substring(1, statements.length() - 1))), null));
+            } else {
+                constructorBody.add(bracesCodeBlock);
+            }
         }
 
         return constructor;
     }
 
-    private String generateIntentTag(String fieldNAme) {
-        String resp = "null";
-        String[] tagData = tagsMap.get(fieldNAme);
-        if (tagData != null && tagData[0] != null) {
-            switch (tagData[0]) {
-                case "boolean":
-                    resp = "intent.getBooleanExtra(" + tagData[1] + ", false)";
-                    break;
-                case "String":
-                    resp = "intent.getStringExtra(" + tagData[1] + ")";
-                    break;
-                case "int":
-                    resp = "intent.getIntExtra(" + tagData[1] + ")";
-                    break;
-                case "long":
-                    resp = "intent.getLongExtra(" + tagData[1] + ")";
-                    break;
-                case "double":
-                    resp = "intent.getDoubleExtra(" + tagData[1] + ")";
-                    break;
-                case "float":
-                    resp = "intent.getFloatExtra(" + tagData[1] + ")";
-                    break;
-                case "char":
-                    resp = "intent.getCharExtra(" + tagData[1] + ")";
-                    break;
-            }
-        }
-
-        return resp;
+    private PsiMethod generateBuildMethod(final PsiClass topLevelClass, final PsiClass builderClass) {
+        final StringBuilder body = new StringBuilder();
+        final boolean bundleExtras = spec.hasOption(IntentBuilderOption.BUNDLE_EXTRAS);
+        if (bundleExtras) {
+            // sized for the extras so it never grows while filling it
+            body.append(String.format("android.os.Bundle %s = new android.os.Bundle(%d);\n",
+                    ExtraContainer.BUNDLE.getVariable(), spec.getExtras().size()));
+        }
+        if (spec.getBaseSpec() != null) {
+            body.append(String.format("%s(%s);\n", WRITE_EXTRAS_METHOD_NAME,
+                    IntentBuilderSpec.containerFor(spec.getOptions()).getVariable()));
+        }
+        for (final IntentBuilderSpec.Extra extra : spec.getExtras()) {
+            body.append(extra.getPutStatement()).append('\n');
+        }
+        if (bundleExtras) {
+            body.append(String.format("intent.putExtras(%s);\n", ExtraContainer.BUNDLE.getVariable()));
+        }
+
+        if (spec.hasOption(IntentBuilderOption.TRACE_SECTIONS)) {
+            final String statements = body.toString();
+            body.setLength(0);
+            body.append(traceSection(topLevelClass.getName() + "." + BUILDER_CLASS_NAME + ".build", statements));
+        }
+
+        if (spec.getDebugFlag() != null) {
+            body.append(String.format("if (%s) { %s(intent); }", spec.getDebugFlag(), REPORT_PAYLOAD_SIZE_METHOD_NAME));
+        }
+
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("intent", INTENT_CLASS_NAME);
+        values.put("context", CONTEXT_CLASS_NAME);
+        values.put("className", topLevelClass.getName());
+        values.put("body", body.toString());
+        return psiElementFactory.createMethodFromText(
+                IntentBuilderTemplates.get(project, IntentBuilderTemplate.BUILD).render(values), builderClass);
     }
 
-    private PsiMethod generateBuildMethod(final PsiClass topLevelClass, final PsiClass builderClass) {
-        final PsiMethod buildMethod = psiElementFactory.createMethod("build", intentType);
-        String parameterName = "context";
+    /**
+     * Drops a launch equal to the previous one within the configured window, before the Intent is built.
+     * The previous launch is kept as its hash and a snapshot holding the values it launched, so a builder
+     * changed and launched again, or a value mutated in place, no longer matches its hash. The snapshot is
+     * released once the window expires.
+     */
+    private PsiMethod generateLaunchMethod() {
+        final int window = spec.getSettings().getLaunchGuardWindow();
+        builderClass.add(psiElementFactory.createFieldFromText(String.format(
+                "private static %s lastLaunch;", BUILDER_CLASS_NAME), builderClass));
+        builderClass.add(psiElementFactory.createFieldFromText("private static int lastLaunchHash;", builderClass));
+        builderClass.add(psiElementFactory.createFieldFromText("private static long lastLaunchTime;", builderClass));
+        builderClass.add(psiElementFactory.createFieldFromText(String.format(
+                "private static final android.os.Handler %s = new android.os.Handler(android.os.Looper.getMainLooper());",
+                LAUNCH_GUARD_HANDLER_FIELD_NAME), builderClass));
+        // a later launch may have taken the lock first, its snapshot is only released after its own window
+        builderClass.add(psiElementFactory.createFieldFromText(String.format(
+                "private static final Runnable %s = new Runnable() {"
+                        + "@%s public void run() {"
+                        + "synchronized (%s.class) {"
+                        + "if (android.os.SystemClock.uptimeMillis() - lastLaunchTime >= %d) { lastLaunch = null; }"
+                        + "}"
+                        + "}"
+                        + "};", RELEASE_LAST_LAUNCH_FIELD_NAME, OVERRIDE_ANNOTATION, BUILDER_CLASS_NAME, window),
+                builderClass));
+
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("@%s public boolean %s(%s context) {", OVERRIDE_ANNOTATION, LAUNCH_METHOD_NAME,
+                CONTEXT_CLASS_NAME));
+        text.append("long now = android.os.SystemClock.uptimeMillis();");
+        text.append("int hash = hashCode();");
+        text.append(String.format("synchronized (%s.class) {", BUILDER_CLASS_NAME));
+        text.append(String.format("if (lastLaunch != null && lastLaunchHash == hash && now - lastLaunchTime < %d"
+                + " && %s(lastLaunch)) { return false; }", window, EQUALS_SNAPSHOT_METHOD_NAME));
+        text.append(String.format("lastLaunch = %s();", SNAPSHOT_METHOD_NAME));
+        text.append("lastLaunchHash = hash;");
+        text.append("lastLaunchTime = now;");
+        text.append(String.format("%s.removeCallbacks(%s);", LAUNCH_GUARD_HANDLER_FIELD_NAME,
+                RELEASE_LAST_LAUNCH_FIELD_NAME));
+        text.append(String.format("%s.postDelayed(%s, %d);", LAUNCH_GUARD_HANDLER_FIELD_NAME,
+                RELEASE_LAST_LAUNCH_FIELD_NAME, window));
+        text.append("}");
+        text.append("context.startActivity(build(context));");
+        text.append("return true;");
+        text.append("}");
+        return psiElementFactory.createMethodFromText(text.toString(), builderClass);
+    }
+
+    /**
+     * Copies the Builder for the launch guard. Values are shared rather than copied, a value mutated in place
+     * changes the hash of the launch. Compressed and shared memory extras are left out, the hash covers them.
+     */
+    private PsiMethod generateSnapshotMethod(final List<IntentBuilderSpec.Field> finalFields,
+                                             final List<IntentBuilderSpec.Field> nonFinalFields) {
+        final StringBuilder arguments = new StringBuilder();
+        for (final IntentBuilderSpec.Field field : finalFields) {
+            if (arguments.length() > 0) {
+                arguments.append(", ");
+            }
+            arguments.append(field.getName());
+        }
+
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("private %1$s %2$s() {", BUILDER_CLASS_NAME, SNAPSHOT_METHOD_NAME));
+        text.append(String.format("%1$s copy = new %1$s(%2$s);", BUILDER_CLASS_NAME, arguments));
+        for (final IntentBuilderSpec.Field field : nonFinalFields) {
+            if (field.getHolder() == null) {
+                text.append(String.format("copy.%1$s = %1$s;", field.getName()));
+            }
+        }
+        if (spec.getBaseSpec() != null) {
+            text.append(String.format("copy.%s(this);", COPY_EXTRAS_METHOD_NAME));
+        }
+        text.append("return copy;");
+        text.append("}");
+        return psiElementFactory.createMethodFromText(text.toString(), builderClass);
+    }
+
+    private PsiMethod generateEqualsSnapshotMethod() {
+        final StringBuilder comparison = new StringBuilder();
+        for (final IntentBuilderSpec.Field field : extraFields()) {
+            if (field.getHolder() == null) {
+                comparison.append("\n&& ").append(equalsExpression(field));
+            }
+        }
 
-        PsiParameter builderParameter = psiElementFactory.createParameter(parameterName, contextType);
-        buildMethod.getParameterList().add(builderParameter);
-        buildMethod.getModifierList().setModifierProperty(PsiModifier.PUBLIC, true);
+        return psiElementFactory.createMethodFromText(String.format("private boolean %s(%s other) {"
+                + "return %s%s;"
+                + "}", EQUALS_SNAPSHOT_METHOD_NAME, BUILDER_CLASS_NAME,
+                spec.getBaseSpec() != null ? EXTRAS_EQUAL_SNAPSHOT_METHOD_NAME + "(other)" : "true", comparison),
+                builderClass);
+    }
 
-        final PsiCodeBlock buildMethodBody = buildMethod.getBody();
-        if (buildMethodBody != null) {
-            final PsiStatement intentStatement = psiElementFactory.createStatementFromText(String.format(
-                    "%s %s;", INTENT_CLASS_NAME, "intent"), buildMethod);
-            buildMethodBody.add(intentStatement);
-            final PsiStatement newIntentStatement = psiElementFactory.createStatementFromText(String.format(
-                    "intent = new %s(context, %s.class);", INTENT_CLASS_NAME, topLevelClass.getName()), buildMethod);
-            buildMethodBody.add(newIntentStatement);
+    /**
+     * @return the Builder fields written as extras, in the order of the extras
+     */
+    private List<IntentBuilderSpec.Field> extraFields() {
+        final Map<String, IntentBuilderSpec.Field> fieldsByName = new HashMap<String, IntentBuilderSpec.Field>();
+        for (final IntentBuilderSpec.Field field : mandatoryFields) {
+            fieldsByName.put(field.getName(), field);
+        }
 
-            for (Map.Entry<String,String[]> entry : tagsMap.entrySet()) {
-                final PsiStatement memberStatement = psiElementFactory.createStatementFromText(String.format(
-                        "intent.putExtra(%s, %s);", entry.getValue()[1], entry.getKey()), buildMethod);
-                buildMethodBody.add(memberStatement);
+        final List<IntentBuilderSpec.Field> extraFields = new ArrayList<IntentBuilderSpec.Field>();
+        for (final IntentBuilderSpec.Extra extra : spec.getExtras()) {
+            final IntentBuilderSpec.Field field = fieldsByName.get(extra.getFieldName());
+            if (field != null) {
+                extraFields.add(field);
             }
+        }
+        return extraFields;
+    }
+
+    /**
+     * The inherited extras are private to ExtrasBuilder, it compares them first.
+     */
+    private PsiMethod generateEqualsMethod() {
+        final StringBuilder comparison = new StringBuilder();
+        for (final IntentBuilderSpec.Field field : extraFields()) {
+            comparison.append("\n&& ").append(equalsExpression(field));
+        }
+
+        return psiElementFactory.createMethodFromText(String.format("@%s public boolean equals(Object o) {"
+                + "if (this == o) { return true; }"
+                + "if (!(o instanceof %2$s)) { return false; }"
+                + "%2$s other = (%2$s) o;"
+                + "return %3$s%4$s;"
+                + "}", OVERRIDE_ANNOTATION, BUILDER_CLASS_NAME,
+                spec.getBaseSpec() != null ? EXTRAS_EQUALS_METHOD_NAME + "(other)" : "true", comparison),
+                builderClass);
+    }
+
+    private PsiMethod generateHashCodeMethod() {
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("@%s public int hashCode() {", OVERRIDE_ANNOTATION));
+        text.append(String.format("int result = %s;",
+                spec.getBaseSpec() != null ? EXTRAS_HASH_METHOD_NAME + "()" : "1"));
+        for (final IntentBuilderSpec.Field field : extraFields()) {
+            text.append(String.format("result = 31 * result + %s;", hashExpression(field)));
+        }
+        text.append("return result;");
+        text.append("}");
+        return psiElementFactory.createMethodFromText(text.toString(), builderClass);
+    }
+
+    /**
+     * The value equality and hash of the inherited extras, used by equals() and hashCode() of the subclass
+     * Builders, and the snapshot of the launch guard without the compressed and shared memory extras.
+     */
+    private void appendBaseExtrasMethods(final StringBuilder builderText) {
+        final String otherType = BASE_BUILDER_CLASS_NAME + "<?>";
+        builderText.append(String.format("protected final boolean %s(%s other) {", EXTRAS_EQUALS_METHOD_NAME,
+                otherType));
+        builderText.append("return true");
+        for (final IntentBuilderSpec.Field field : extraFields()) {
+            builderText.append("\n&& ").append(equalsExpression(field));
+        }
+        builderText.append(";}");
+
+        builderText.append(String.format("protected final int %s() {", EXTRAS_HASH_METHOD_NAME));
+        builderText.append("int result = 1;");
+        for (final IntentBuilderSpec.Field field : extraFields()) {
+            builderText.append(String.format("result = 31 * result + %s;", hashExpression(field)));
+        }
+        builderText.append("return result;}");
+
+        builderText.append(String.format("protected final void %s(%s other) {", COPY_EXTRAS_METHOD_NAME, otherType));
+        for (final IntentBuilderSpec.Field field : extraFields()) {
+            if (field.getHolder() == null) {
+                builderText.append(String.format("%1$s = other.%1$s;", field.getName()));
+            }
+        }
+        builderText.append("}");
+
+        builderText.append(String.format("protected final boolean %s(%s other) {",
+                EXTRAS_EQUAL_SNAPSHOT_METHOD_NAME, otherType));
+        builderText.append("return true");
+        for (final IntentBuilderSpec.Field field : extraFields()) {
+            if (field.getHolder() == null) {
+                builderText.append("\n&& ").append(equalsExpression(field));
+            }
+        }
+        builderText.append(";}");
+    }
+
+    private static String equalsExpression(final IntentBuilderSpec.Field field) {
+        final String name = field.getName();
+        final String typeText = field.getTypeText();
+        if ("float".equals(typeText) || "double".equals(typeText)) {
+            return String.format("%s.compare(%s, other.%2$s) == 0", IntentBuilderUtils.capitalize(typeText), name);
+        } else if (typeText.endsWith("[]")) {
+            return String.format("java.util.Arrays.equals(%s, other.%1$s)", name);
+        } else if (PsiTypesUtil.boxIfPossible(typeText).equals(typeText)) {
+            return String.format("(%s == null ? other.%1$s == null : %1$s.equals(other.%1$s))", name);
+        }
+        return String.format("%s == other.%1$s", name);
+    }
+
+    private static String hashExpression(final IntentBuilderSpec.Field field) {
+        final String name = field.getName();
+        final String typeText = field.getTypeText();
+        if ("boolean".equals(typeText)) {
+            return String.format("(%s ? 1231 : 1237)", name);
+        } else if ("long".equals(typeText)) {
+            return String.format("(int) (%s ^ (%1$s >>> 32))", name);
+        } else if ("float".equals(typeText)) {
+            return String.format("Float.floatToIntBits(%s)", name);
+        } else if ("double".equals(typeText)) {
+            return String.format("(int) (Double.doubleToLongBits(%s) ^ (Double.doubleToLongBits(%1$s) >>> 32))",
+                    name);
+        } else if (typeText.endsWith("[]")) {
+            return String.format("java.util.Arrays.hashCode(%s)", name);
+        } else if (PsiTypesUtil.boxIfPossible(typeText).equals(typeText)) {
+            return String.format("(%s != null ? %1$s.hashCode() : 0)", name);
+        }
+        return String.format("(int) %s", name);
+    }
 
-            final PsiStatement returnStatement = psiElementFactory.createStatementFromText("return intent;", buildMethod);
-            buildMethodBody.add(returnStatement);
+    /**
+     * Wraps statements in a named trace section, the enabled check is read once so a disabled tracer
+     * costs a single call.
+     */
+    private String traceSection(final String sectionName, final String statements) {
+        final String traceClass = spec.getSettings().getTraceClass();
+        return String.format("final boolean traced = %1$s.isEnabled();\n"
+                + "if (traced) { %1$s.beginSection(\"%2$s\"); }\n"
+                + "try {\n%3$s\n} finally {\n"
+                + "if (traced) { %1$s.endSection(); }\n"
+                + "}\n", traceClass, sectionName, statements);
+    }
+
+    /**
+     * Measures the marshalled size of the extras and of each key, the size of a key is the difference
+     * with the extras marshalled without it.
+     */
+    private PsiMethod generateReportPayloadSizeMethod(final PsiClass topLevelClass) {
+        final IntentBuilderSettings settings = spec.getSettings();
+        final String target = topLevelClass.getName() + "." + BUILDER_CLASS_NAME;
+
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("private static void %s(android.content.Intent intent) {",
+                REPORT_PAYLOAD_SIZE_METHOD_NAME));
+        text.append("android.os.Bundle extras = intent.getExtras();");
+        text.append("if (extras == null) { return; }");
+        text.append(String.format("int totalBytes = %s(extras);", PARCEL_SIZE_METHOD_NAME));
+        text.append("java.util.Map<String, Integer> bytesPerKey = new java.util.LinkedHashMap<String, Integer>();");
+        text.append("for (String key : extras.keySet()) {");
+        text.append("android.os.Bundle withoutKey = new android.os.Bundle(extras);");
+        text.append("withoutKey.remove(key);");
+        text.append(String.format("bytesPerKey.put(key, totalBytes - %s(withoutKey));", PARCEL_SIZE_METHOD_NAME));
+        text.append("}");
+        if (settings.getPayloadListener() != null) {
+            text.append(String.format("%s.onIntentPayload(\"%s\", totalBytes, bytesPerKey);",
+                    settings.getPayloadListener(), target));
         }
-        return buildMethod;
+        text.append(String.format("if (totalBytes > %d) {", settings.getPayloadWarnThreshold()));
+        text.append(String.format("android.util.Log.w(\"%s\", \"Intent extras are \" + totalBytes + \" bytes: \" + bytesPerKey);",
+                target));
+        text.append("}");
+        text.append("}");
+        return psiElementFactory.createMethodFromText(text.toString(), builderClass);
+    }
+
+    private PsiMethod generateParcelSizeMethod() {
+        return psiElementFactory.createMethodFromText(String.format("private static int %s(android.os.Bundle bundle) {"
+                + "android.os.Parcel parcel = android.os.Parcel.obtain();"
+                + "try { parcel.writeBundle(bundle); return parcel.dataSize(); }"
+                + "finally { parcel.recycle(); }"
+                + "}", PARCEL_SIZE_METHOD_NAME), builderClass);
     }
 
-    private PsiMethod generateGetterMethod(final PsiFieldMember fieldMember, final PsiType type) {
-        PsiField field = fieldMember.getElement();
+    private PsiMethod generateGetterMethod(final IntentBuilderSpec.Field field, final PsiClass topLevelClass) {
         String fieldName = field.getName();
-        String methodName;
 
         if (TextUtils.isEmpty(fieldName)) {
             return null;
         }
 
-        if (type.getCanonicalText().equals("boolean")) {
-            methodName = String.format("is%s", IntentBuilderUtils.capitalize(fieldName));
+        final Map<String, String> values = new HashMap<String, String>();
+        values.put("type", field.getTypeText());
+        values.put("methodName", field.getGetterName());
+        values.put("field", fieldName);
+        final IntentBuilderTemplate template;
+        if (field.getHolder() != null) {
+            values.put("holder", field.getHolder());
+            values.put("decode", field.getDecodeExpression());
+            template = IntentBuilderTemplate.LAZY_GETTER;
         } else {
-            methodName = String.format("get%s", IntentBuilderUtils.capitalize(fieldName));
+            template = IntentBuilderTemplate.GETTER;
         }
+        return psiElementFactory.createMethodFromText(
+                IntentBuilderTemplates.get(project, template).render(values), topLevelClass);
+    }
+
+    /**
+     * Declares the holder of every encoded field next to the field, and the helpers encoding and decoding
+     * the holders.
+     */
+    private void addHolders(final PsiClass topLevelClass) {
+        final Set<String> holderTypes = new HashSet<String>();
+        boolean readsSharedMemory = false;
+        for (final IntentBuilderSpec.Field field : mandatoryFields) {
+            final String holder = field.getHolder();
+            if (holder == null) {
+                continue;
+            }
 
-        PsiMethod getterMethod = psiElementFactory.createMethod(methodName, type);
-        getterMethod.getModifierList().setModifierProperty(PsiModifier.PUBLIC, true);
+            holderTypes.add(field.getHolderType());
+            readsSharedMemory |= field.getDecodeExpression().startsWith(READ_SHARED_MEMORY_METHOD_NAME);
+            final PsiField holderField = psiElementFactory.createFieldFromText(
+                    String.format("private %s %s;", field.getHolderType(), holder), topLevelClass);
+            final PsiField existingHolder = topLevelClass.findFieldByName(holder, false);
+            if (existingHolder != null) {
+                // a holder of an earlier transport has another type
+                if (!IntentBuilderUtils.areTypesPresentableEqual(existingHolder.getType(), holderField.getType())) {
+                    existingHolder.replace(holderField);
+                }
+                continue;
+            }
 
-        final PsiCodeBlock setterMethodBody = getterMethod.getBody();
-        if (setterMethodBody != null) {
-            setterMethodBody.add(IntentBuilderUtils.createReturn(psiElementFactory, fieldName));
+            final PsiField anchor = topLevelClass.findFieldByName(field.getName(), false);
+            if (anchor != null) {
+                topLevelClass.addAfter(holderField, anchor);
+            } else {
+                topLevelClass.add(holderField);
+            }
         }
 
-        return getterMethod;
+        if (holderTypes.contains("byte[]")) {
+            addMethod(topLevelClass, null, generateCompressMethod(topLevelClass), true);
+            addMethod(topLevelClass, null, generateDecompressMethod(topLevelClass), true);
+        }
+        if (holderTypes.contains(IntentBuilderSpec.SHARED_MEMORY_HOLDER_TYPE)) {
+            addSharedMemoryBinder(topLevelClass);
+            addMethod(topLevelClass, null, generateWriteSharedMemoryMethod(topLevelClass), true);
+            addMethod(topLevelClass, null, generateMapSharedMemoryMethod(topLevelClass), true);
+        }
+        if (readsSharedMemory) {
+            addMethod(topLevelClass, null, generateReadSharedMemoryMethod(topLevelClass), true);
+        }
     }
 
-    @NotNull
-    private PsiClass findOrCreateBuilderClass(final PsiClass topLevelClass, Collection<PsiClassType> interfaces, PsiClassType interfaceClass) {
-        final PsiClass builderClass = topLevelClass.findInnerClassByName(BUILDER_CLASS_NAME, false);
-        if (builderClass == null) {
-            List<PsiClassType> types = new ArrayList<PsiClassType>(interfaces);
-            types.add(interfaceClass);
+    /**
+     * Declares the Binder handing a region out and the mappings received in this process. The system keeps
+     * the Binder while an Intent referencing it may still be delivered, eg. to recreate an activity whose
+     * process was killed, so the Binder hands its region out on every request and only closes it once it is
+     * collected. A receiver recreated in the same process finds the mapping it received first.
+     */
+    private void addSharedMemoryBinder(final PsiClass topLevelClass) {
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("private static final class %s extends android.os.Binder {",
+                SHARED_MEMORY_BINDER_CLASS_NAME));
+        text.append("private final android.os.SharedMemory memory;");
+        text.append(String.format("%s(android.os.SharedMemory memory) { this.memory = memory; }",
+                SHARED_MEMORY_BINDER_CLASS_NAME));
+        text.append(String.format("@%s protected boolean onTransact(int code, android.os.Parcel data,"
+                + " android.os.Parcel reply, int flags) throws android.os.RemoteException {", OVERRIDE_ANNOTATION));
+        text.append("if (code != FIRST_CALL_TRANSACTION) { return super.onTransact(code, data, reply, flags); }");
+        // the reply holds its own duplicate of the descriptor
+        text.append("memory.writeToParcel(reply, 0);");
+        text.append("return true;");
+        text.append("}");
+        text.append(String.format("@%s protected void finalize() throws Throwable {", OVERRIDE_ANNOTATION));
+        text.append("try { memory.close(); } finally { super.finalize(); }");
+        text.append("}");
+        text.append("}");
+        final PsiClass binderClass = psiElementFactory.createClassFromText(text.toString(), topLevelClass)
+                .getInnerClasses()[0];
+        final PsiClass existingBinderClass = topLevelClass.findInnerClassByName(SHARED_MEMORY_BINDER_CLASS_NAME,
+                false);
+        if (existingBinderClass != null) {
+            existingBinderClass.replace(binderClass);
+        } else {
+            topLevelClass.add(binderClass);
+        }
 
-            return createBuilderClass(topLevelClass, types);
+        final PsiField mappingsField = psiElementFactory.createFieldFromText(String.format(
+                "private static final java.util.Map<android.os.IBinder, java.nio.ByteBuffer> %s ="
+                        + " new java.util.WeakHashMap<android.os.IBinder, java.nio.ByteBuffer>();",
+                SHARED_MEMORY_MAPPINGS_FIELD_NAME), topLevelClass);
+        final PsiField existingMappingsField = topLevelClass.findFieldByName(SHARED_MEMORY_MAPPINGS_FIELD_NAME, false);
+        if (existingMappingsField != null) {
+            existingMappingsField.replace(mappingsField);
+        } else {
+            topLevelClass.add(mappingsField);
         }
+    }
 
-        return builderClass;
+    /**
+     * Copies a byte[] or ByteBuffer into a read only shared memory region, prefixed with its length as a
+     * region cannot be empty. The returned Bundle only carries the Binder handing the region out, or the
+     * bytes themselves on a device without SharedMemory.
+     */
+    private PsiMethod generateWriteSharedMemoryMethod(final PsiClass topLevelClass) {
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("private static android.os.Bundle %s(Object value) {",
+                WRITE_SHARED_MEMORY_METHOD_NAME));
+        text.append("java.nio.ByteBuffer data = value instanceof byte[] ? java.nio.ByteBuffer.wrap((byte[]) value)"
+                + " : ((java.nio.ByteBuffer) value).duplicate();");
+        if (spec.hasSharedMemoryVersionCheck()) {
+            text.append(String.format("if (android.os.Build.VERSION.SDK_INT < %d) {",
+                    IntentBuilderSpec.SHARED_MEMORY_MIN_SDK));
+            text.append("byte[] bytes = new byte[data.remaining()];");
+            text.append("data.get(bytes);");
+            text.append("android.os.Bundle bundle = new android.os.Bundle(1);");
+            text.append(String.format("bundle.putByteArray(\"%s\", bytes);", SHARED_MEMORY_BYTES_KEY));
+            text.append("return bundle;");
+            text.append("}");
+        }
+        text.append("try {");
+        text.append("android.os.SharedMemory memory = android.os.SharedMemory.create(null, data.remaining() + 4);");
+        text.append("java.nio.ByteBuffer buffer = memory.mapReadWrite();");
+        text.append("try { buffer.putInt(data.remaining()); buffer.put(data); }");
+        text.append("finally { android.os.SharedMemory.unmap(buffer); }");
+        text.append("memory.setProtect(android.system.OsConstants.PROT_READ);");
+        text.append("android.os.Bundle bundle = new android.os.Bundle(1);");
+        text.append(String.format("bundle.putBinder(\"%s\", new %s(memory));", SHARED_MEMORY_BINDER_KEY,
+                SHARED_MEMORY_BINDER_CLASS_NAME));
+        text.append("return bundle;");
+        text.append("} catch (android.system.ErrnoException e) { throw new IllegalStateException(e); }");
+        text.append("}");
+        return psiElementFactory.createMethodFromText(text.toString(), topLevelClass);
+    }
+
+    /**
+     * Fetches the region from its Binder and maps it read only, closing the descriptor as the mapping stays
+     * valid. Null if the process of the sender died.
+     */
+    private PsiMethod generateMapSharedMemoryMethod(final PsiClass topLevelClass) {
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("private static java.nio.ByteBuffer %s(android.os.Bundle bundle) {",
+                MAP_SHARED_MEMORY_METHOD_NAME));
+        if (spec.hasSharedMemoryVersionCheck()) {
+            text.append(String.format("byte[] bytes = bundle.getByteArray(\"%s\");", SHARED_MEMORY_BYTES_KEY));
+            text.append("if (bytes != null) { return java.nio.ByteBuffer.wrap(bytes).asReadOnlyBuffer(); }");
+        }
+        text.append(String.format("android.os.IBinder binder = bundle.getBinder(\"%s\");", SHARED_MEMORY_BINDER_KEY));
+        text.append("if (binder == null) { return null; }");
+        text.append(String.format("synchronized (%s) {", SHARED_MEMORY_MAPPINGS_FIELD_NAME));
+        text.append(String.format("java.nio.ByteBuffer mapping = %s.get(binder);", SHARED_MEMORY_MAPPINGS_FIELD_NAME));
+        text.append("if (mapping != null) { return mapping.duplicate(); }");
+        text.append("android.os.Parcel data = android.os.Parcel.obtain();");
+        text.append("android.os.Parcel reply = android.os.Parcel.obtain();");
+        text.append("try {");
+        text.append("binder.transact(android.os.IBinder.FIRST_CALL_TRANSACTION, data, reply, 0);");
+        text.append("android.os.SharedMemory memory = android.os.SharedMemory.CREATOR.createFromParcel(reply);");
+        text.append("try {");
+        text.append("java.nio.ByteBuffer buffer = memory.mapReadOnly();");
+        text.append("int length = buffer.getInt();");
+        text.append("buffer.limit(4 + length);");
+        text.append("mapping = buffer.slice();");
+        text.append("} finally { memory.close(); }");
+        text.append(String.format("%s.put(binder, mapping);", SHARED_MEMORY_MAPPINGS_FIELD_NAME));
+        text.append("return mapping.duplicate();");
+        text.append("} catch (android.os.RemoteException e) { return null; }");
+        text.append("catch (android.system.ErrnoException e) { throw new IllegalStateException(e); }");
+        text.append("finally { data.recycle(); reply.recycle(); }");
+        text.append("}");
+        text.append("}");
+        return psiElementFactory.createMethodFromText(text.toString(), topLevelClass);
+    }
+
+    private PsiMethod generateReadSharedMemoryMethod(final PsiClass topLevelClass) {
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("private static byte[] %s(android.os.Bundle bundle) {",
+                READ_SHARED_MEMORY_METHOD_NAME));
+        text.append(String.format("java.nio.ByteBuffer mapping = %s(bundle);", MAP_SHARED_MEMORY_METHOD_NAME));
+        text.append("if (mapping == null) { return null; }");
+        text.append("byte[] data = new byte[mapping.remaining()];");
+        text.append("mapping.get(data);");
+        text.append("return data;");
+        text.append("}");
+        return psiElementFactory.createMethodFromText(text.toString(), topLevelClass);
+    }
+
+    /**
+     * Prefixes the bytes with a flag: 0 for values under the threshold, or that do not shrink, sent as is,
+     * 1 for deflated values.
+     */
+    private PsiMethod generateCompressMethod(final PsiClass topLevelClass) {
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("private static byte[] %s(byte[] data) {", COMPRESS_METHOD_NAME));
+        text.append(String.format("if (data.length >= %d) {", spec.getSettings().getCompressThreshold()));
+        text.append("java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream(data.length / 2 + 1);");
+        text.append("out.write(1);");
+        text.append("java.util.zip.DeflaterOutputStream deflater = new java.util.zip.DeflaterOutputStream(out);");
+        // closing the stream ends its native Deflater, also when a write fails
+        text.append("try { try { deflater.write(data); } finally { deflater.close(); } }");
+        text.append("catch (java.io.IOException e) { throw new IllegalStateException(e); }");
+        text.append("if (out.size() <= data.length) { return out.toByteArray(); }");
+        text.append("}");
+        text.append("byte[] raw = new byte[data.length + 1];");
+        text.append("System.arraycopy(data, 0, raw, 1, data.length);");
+        text.append("return raw;");
+        text.append("}");
+        return psiElementFactory.createMethodFromText(text.toString(), topLevelClass);
+    }
+
+    private PsiMethod generateDecompressMethod(final PsiClass topLevelClass) {
+        final StringBuilder text = new StringBuilder();
+        text.append(String.format("private static byte[] %s(byte[] data) {", DECOMPRESS_METHOD_NAME));
+        text.append("if (data[0] == 0) { return java.util.Arrays.copyOfRange(data, 1, data.length); }");
+        text.append("java.util.zip.InflaterInputStream in = new java.util.zip.InflaterInputStream("
+                + "new java.io.ByteArrayInputStream(data, 1, data.length - 1));");
+        text.append("java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream(data.length * 4);");
+        text.append("byte[] buffer = new byte[8192];");
+        text.append("try {");
+        text.append("try { for (int read; (read = in.read(buffer)) != -1; ) { out.write(buffer, 0, read); } }");
+        text.append("finally { in.close(); }");
+        text.append("} catch (java.io.IOException e) { throw new IllegalStateException(e); }");
+        text.append("return out.toByteArray();");
+        text.append("}");
+        return psiElementFactory.createMethodFromText(text.toString(), topLevelClass);
+    }
+
+    private void addKeyConstants(final PsiClass topLevelClass) {
+        PsiElement anchor = null;
+        for (final IntentBuilderSpec.KeyConstant constant : spec.getKeyConstants()) {
+            final PsiField keyField = psiElementFactory.createFieldFromText(String.format(
+                    "public static final String %s = %s;", constant.getName(), constant.getValue()), topLevelClass);
+
+            final PsiField existingField = topLevelClass.findFieldByName(constant.getName(), false);
+            if (existingField != null) {
+                anchor = existingField.replace(keyField);
+            } else if (anchor != null) {
+                anchor = topLevelClass.addAfter(keyField, anchor);
+            } else {
+                final PsiField[] fields = topLevelClass.getFields();
+                anchor = fields.length > 0 ? topLevelClass.addBefore(keyField, fields[0]) : topLevelClass.add(keyField);
+            }
+        }
+    }
+
+    /**
+     * Replaces the generated builder() of the class, overloads left behind by a previous parameter list
+     * are removed. A method is generated if it creates a Builder, other methods of the same name are kept.
+     */
+    private void replaceBuilderMethods(final PsiClass topLevelClass, final PsiMethod newBuilderMethod) {
+        PsiElement replaced = null;
+        for (final PsiMethod method : topLevelClass.findMethodsByName(newBuilderMethod.getName(), false)) {
+            if (!method.hasModifierProperty(PsiModifier.STATIC) || !createsBuilder(method)) {
+                continue;
+            }
+            if (replaced == null) {
+                replaced = method.replace(newBuilderMethod);
+            } else {
+                method.delete();
+            }
+        }
+        if (replaced == null) {
+            topLevelClass.add(newBuilderMethod);
+        }
+    }
+
+    private static boolean createsBuilder(final PsiMethod method) {
+        for (final PsiNewExpression newExpression
+                : PsiTreeUtil.findChildrenOfType(method.getBody(), PsiNewExpression.class)) {
+            final PsiJavaCodeReferenceElement classReference = newExpression.getClassReference();
+            if (classReference != null && BUILDER_CLASS_NAME.equals(classReference.getReferenceName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes what a previous generation added for fields it covered and this one does not: their getter,
+     * key constant and holders. Holders of a field that changed transport are removed as well.
+     */
+    private void removeStaleMembers(final PsiClass target, final Set<String> previousFieldNames) {
+        final Map<String, IntentBuilderSpec.Field> fieldsByName = new HashMap<String, IntentBuilderSpec.Field>();
+        for (final IntentBuilderSpec.Field field : mandatoryFields) {
+            fieldsByName.put(field.getName(), field);
+        }
+
+        final Set<String> fieldNames = new HashSet<String>(previousFieldNames);
+        fieldNames.addAll(fieldsByName.keySet());
+        for (final String fieldName : fieldNames) {
+            final IntentBuilderSpec.Field field = fieldsByName.get(fieldName);
+            for (final String suffix : new String[]{IntentBuilderSpec.COMPRESSED_HOLDER_SUFFIX,
+                    IntentBuilderSpec.SHARED_MEMORY_HOLDER_SUFFIX}) {
+                final PsiField holder = target.findFieldByName(fieldName + suffix, false);
+                if (holder != null && (field == null || !holder.getName().equals(field.getHolder()))) {
+                    holder.delete();
+                }
+            }
+            if (field != null) {
+                continue;
+            }
+
+            final PsiField keyConstant = target.findFieldByName(IntentBuilderSpec.KEY_CONSTANT_PREFIX
+                    + IntentBuilderUtils.toConstantName(fieldName), false);
+            if (keyConstant != null && keyConstant.hasModifierProperty(PsiModifier.STATIC)) {
+                keyConstant.delete();
+            }
+            final String capitalizedName = IntentBuilderUtils.capitalize(fieldName);
+            for (final String getterName : new String[]{"get" + capitalizedName, "is" + capitalizedName}) {
+                for (final PsiMethod getter : target.findMethodsByName(getterName, false)) {
+                    if (getter.getParameterList().getParametersCount() == 0 && returnsField(getter, fieldName)) {
+                        getter.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean returnsField(final PsiMethod getter, final String fieldName) {
+        for (final PsiReturnStatement returnStatement
+                : PsiTreeUtil.findChildrenOfType(getter.getBody(), PsiReturnStatement.class)) {
+            final PsiExpression returnValue = returnStatement.getReturnValue();
+            if (returnValue instanceof PsiReferenceExpression
+                    && fieldName.equals(((PsiReferenceExpression) returnValue).getReferenceName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> instanceFieldNames(final PsiClass generatedClass) {
+        final Set<String> names = new HashSet<String>();
+        for (final PsiField field : generatedClass.getFields()) {
+            if (!field.hasModifierProperty(PsiModifier.STATIC)) {
+                names.add(field.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Records the Builder and its step interfaces to be replaced by their new version.
+     *
+     * @return the instance fields of the previous Builder, the fields the previous generation covered
+     */
+    private Set<String> collectGeneratedBuilder(final PsiClass topLevelClass) {
+        final PsiClass existingBuilder = topLevelClass.findInnerClassByName(BUILDER_CLASS_NAME, false);
+        if (existingBuilder == null) {
+            return Collections.emptySet();
+        }
+
+        for (final PsiClassType stepType : existingBuilder.getImplementsListTypes()) {
+            final PsiClass stepInterface = topLevelClass.findInnerClassByName(stepType.getClassName(), false);
+            if (stepInterface != null && stepInterface.isInterface()) {
+                previousClasses.put(stepInterface.getName(), stepInterface);
+            }
+        }
+        previousClasses.put(BUILDER_CLASS_NAME, existingBuilder);
+        return instanceFieldNames(existingBuilder);
+    }
+
+    /**
+     * Replaces the previous class of the same name, so regenerating an unchanged class leaves it in place.
+     * A new class goes after the last placed one, the first one at the end of the class.
+     */
+    private PsiClass placeGeneratedClass(final PsiClass target, final PsiClass newClass) {
+        final PsiClass previousClass = previousClasses.remove(newClass.getName());
+        if (previousClass != null) {
+            lastPlacedClass = previousClass.replace(newClass);
+        } else if (lastPlacedClass != null) {
+            lastPlacedClass = target.addAfter(newClass, lastPlacedClass);
+        } else {
+            lastPlacedClass = target.add(newClass);
+        }
+        return (PsiClass) lastPlacedClass;
+    }
+
+    /**
+     * Deletes the previous classes with no new version, eg. the step interface of a removed field.
+     */
+    private void removeUnplacedClasses() {
+        for (final PsiClass previousClass : previousClasses.values()) {
+            if (previousClass.isValid()) {
+                previousClass.delete();
+            }
+        }
+        previousClasses.clear();
     }
 
     @NotNull
     private PsiClass createBuilderClass(final PsiClass topLevelClass, List<PsiClassType> implementedTypes) {
-        final PsiClass builderClass = (PsiClass) topLevelClass.add(psiElementFactory.createClass(BUILDER_CLASS_NAME));
+        final PsiClass builderClass = placeGeneratedClass(topLevelClass, psiElementFactory.createClass(BUILDER_CLASS_NAME));
         PsiUtil.setModifierProperty(builderClass, PsiModifier.STATIC, true);
         PsiUtil.setModifierProperty(builderClass, PsiModifier.FINAL, true);
 
@@ -528,11 +1437,10 @@ public class IntentBuilderGenerator implements Runnable {
         return builderClass;
     }
 
-    private PsiElement findOrCreateField(final PsiClass builderClass, final PsiFieldMember member,
+    private PsiElement findOrCreateField(final PsiClass builderClass, final IntentBuilderSpec.Field field,
                                          @Nullable final PsiElement last) {
-        final PsiField field = member.getElement();
         final String fieldName = field.getName();
-        final PsiType fieldType = field.getType();
+        final PsiType fieldType = createFieldType(field, builderClass);
         final PsiField existingField = builderClass.findFieldByName(fieldName, false);
         if (existingField == null || !IntentBuilderUtils.areTypesPresentableEqual(existingField.getType(), fieldType)) {
             if (existingField != null) {
@@ -550,16 +1458,7 @@ public class IntentBuilderGenerator implements Runnable {
 
     private PsiElement addMethod(@NotNull final PsiClass target, @Nullable final PsiElement after,
                                  @NotNull final PsiMethod newMethod, final boolean replace) {
-        PsiMethod existingMethod = target.findMethodBySignature(newMethod, false);
-        if (existingMethod == null && newMethod.isConstructor()) {
-            for (final PsiMethod constructor : target.getConstructors()) {
-                if (IntentBuilderUtils.areParameterListsEqual(constructor.getParameterList(),
-                        newMethod.getParameterList())) {
-                    existingMethod = constructor;
-                    break;
-                }
-            }
-        }
+        final PsiMethod existingMethod = findExistingMethod(target, newMethod);
         if (existingMethod == null) {
             if (after != null) {
                 return target.addAfter(newMethod, after);
@@ -571,5 +1470,26 @@ public class IntentBuilderGenerator implements Runnable {
         }
         return existingMethod;
     }
-}
 
+    @Nullable
+    private PsiMethod findExistingMethod(@NotNull final PsiClass target, @NotNull final PsiMethod newMethod) {
+        // comparing signatures erases the parameter types, which resolves them through the imports
+        if (!DumbService.isDumb(project)) {
+            final PsiMethod existingMethod = target.findMethodBySignature(newMethod, false);
+            if (existingMethod != null || !newMethod.isConstructor()) {
+                return existingMethod;
+            }
+        }
+
+        // while indexing, and for constructors, match the presentable parameter types
+        final PsiMethod[] candidates = newMethod.isConstructor()
+                ? target.getConstructors() : target.findMethodsByName(newMethod.getName(), false);
+        for (final PsiMethod candidate : candidates) {
+            if (IntentBuilderUtils.areParameterListsEqual(candidate.getParameterList(),
+                    newMethod.getParameterList())) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+}
@@ -14,8 +14,10 @@ import com.intellij.lang.LanguageCodeInsightActionHandler;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.DumbAware;
 import com.intellij.openapi.project.Project;
 
+import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiDocumentManager;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiJavaFile;
@@ -24,7 +26,7 @@ import static com.mikeescom.IntentBuilderCollector.collectFields;
 import static com.mikeescom.IntentBuilderTagEditor.getFields;
 import static com.mikeescom.IntentBuilderTagEditor.getTags;
 
-public class IntentBuilderHandler  implements LanguageCodeInsightActionHandler {
+public class IntentBuilderHandler  implements LanguageCodeInsightActionHandler, DumbAware {
 
     private static boolean isApplicable(final PsiFile file, final Editor editor) {
         final List<PsiFieldMember> targetElements = collectFields(file, editor);
@@ -70,13 +72,24 @@ public class IntentBuilderHandler  implements LanguageCodeInsightActionHandler {
 
         final List<PsiFieldMember> existingFields = collectFields(file, editor);
         if (existingFields != null) {
-            final List<PsiFieldMember> fields = getFields(existingFields, project);
-            final Map<String, String[]> tags = getTags();
+            final PsiClass topLevelClass = IntentBuilderUtils.getTopLevelClass(project, file, editor);
+            if (topLevelClass == null) {
+                return;
+            }
 
+            // a regeneration starts from the tags of the previous generation
+            final List<PsiFieldMember> fields = getFields(existingFields, project,
+                    IntentBuilderCollector.recoverTags(topLevelClass, existingFields));
             if (fields == null) {
                 return;
-            } else {
-                IntentBuilderGenerator.generate(project, editor, file, fields, tags);
+            }
+            final Map<String, String[]> tags = getTags();
+
+            // resolve everything off the EDT first so the write action only inserts PSI
+            final IntentBuilderSpec spec = IntentBuilderSpec.computeInBackground(project, topLevelClass, fields, tags,
+                    IntentBuilderOption.currentOptions());
+            if (spec != null) {
+                IntentBuilderGenerator.generate(project, file, spec);
             }
         }
     }
@@ -1,10 +1,23 @@
 package com.mikeescom;
 
+import com.intellij.ide.util.PropertiesComponent;
+
+import java.util.EnumSet;
+
 public enum IntentBuilderOption {
     FINAL_SETTERS("finalSetters"),
     COPY_CONSTRUCTOR("copyConstructor"),
     WITH_JAVADOC("withJavadoc"),
-    PUBLIC_INTERFACES("publicInterface");
+    PUBLIC_INTERFACES("publicInterface"),
+    ENUMS_BY_NAME("enumsByName"),
+    INCLUDE_LIBRARY_FIELDS("includeLibraryFields"),
+    PAYLOAD_SIZE_CHECK("payloadSizeCheck"),
+    COMPACT_KEYS("compactKeys"),
+    BUNDLE_EXTRAS("bundleExtras"),
+    COMPRESS_LARGE_EXTRAS("compressLargeExtras"),
+    TRACE_SECTIONS("traceSections"),
+    BASE_BUILDERS("baseBuilders"),
+    LAUNCH_GUARD("launchGuard");
 
     private final String property;
 
@@ -15,4 +28,16 @@ public enum IntentBuilderOption {
     public String getProperty() {
         return property;
     }
+
+    public static EnumSet<IntentBuilderOption> currentOptions() {
+        final EnumSet<IntentBuilderOption> options = EnumSet.noneOf(IntentBuilderOption.class);
+        final PropertiesComponent propertiesComponent = PropertiesComponent.getInstance();
+        for (final IntentBuilderOption option : IntentBuilderOption.values()) {
+            final boolean currentSetting = propertiesComponent.getBoolean(option.getProperty(), false);
+            if (currentSetting) {
+                options.add(option);
+            }
+        }
+        return options;
+    }
 }
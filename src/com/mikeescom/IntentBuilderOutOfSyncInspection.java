@@ -0,0 +1,81 @@
+package com.mikeescom;
+
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.codeInsight.generation.PsiFieldMember;
+import com.intellij.codeInspection.AbstractBaseJavaLocalInspectionTool;
+import com.intellij.codeInspection.ProblemsHolder;
+
+import com.intellij.psi.JavaElementVisitor;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiElementVisitor;
+import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiLiteralExpression;
+
+/**
+ * Reports a generated Builder whose recorded fields fingerprint no longer matches the fields of
+ * the class. Only the fingerprint is recomputed, the generator itself never runs while highlighting.
+ */
+public class IntentBuilderOutOfSyncInspection extends AbstractBaseJavaLocalInspectionTool {
+
+    @NotNull
+    @Override
+    public PsiElementVisitor buildVisitor(@NotNull final ProblemsHolder holder, final boolean isOnTheFly) {
+        return new JavaElementVisitor() {
+            @Override
+            public void visitClass(final PsiClass aClass) {
+                if (aClass.getContainingClass() != null) {
+                    return;
+                }
+
+                final PsiClass builderClass = aClass.findInnerClassByName(
+                        IntentBuilderGenerator.BUILDER_CLASS_NAME, false);
+                if (builderClass == null) {
+                    return;
+                }
+
+                final String recorded = recordedFingerprint(builderClass);
+                if (recorded == null) {
+                    return;
+                }
+
+                final List<PsiFieldMember> fields = IntentBuilderCollector.collectFields(aClass, aClass);
+                if (fields == null || fields.isEmpty()) {
+                    return;
+                }
+
+                if (!recorded.equals(IntentBuilderUtils.fieldsFingerprint(fields))) {
+                    final PsiElement nameIdentifier = builderClass.getNameIdentifier();
+                    holder.registerProblem(nameIdentifier != null ? nameIdentifier : builderClass,
+                            "Intent Builder is out of sync with the fields of " + aClass.getName(),
+                            new IntentBuilderRegenerateFix(aClass));
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the fingerprint recorded in a generated Builder, or null if it has none
+     */
+    @Nullable
+    static String recordedFingerprint(final PsiClass builderClass) {
+        final PsiField fingerprintField = builderClass.findFieldByName(
+                IntentBuilderGenerator.FINGERPRINT_FIELD_NAME, false);
+        if (fingerprintField == null) {
+            return null;
+        }
+
+        final PsiExpression initializer = fingerprintField.getInitializer();
+        if (!(initializer instanceof PsiLiteralExpression)) {
+            return null;
+        }
+
+        final Object value = ((PsiLiteralExpression) initializer).getValue();
+        return value instanceof String ? (String) value : null;
+    }
+}
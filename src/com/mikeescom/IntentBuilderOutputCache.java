@@ -0,0 +1,69 @@
+package com.mikeescom;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+
+/**
+ * Local on-disk cache of generated output, addressed by a hash of every generator input. An entry holds
+ * the hash of the file text the generator produced for these inputs, so an unchanged class is recognized
+ * without running the generator.
+ */
+final class IntentBuilderOutputCache {
+    private static final Logger LOG = Logger.getInstance(IntentBuilderOutputCache.class);
+
+    @NonNls
+    private static final String CACHE_DIRECTORY = "intent-builder-cache";
+
+    private final File directory;
+
+    private IntentBuilderOutputCache(final File directory) {
+        this.directory = directory;
+    }
+
+    @NotNull
+    static IntentBuilderOutputCache getInstance(@NotNull final Project project) {
+        return new IntentBuilderOutputCache(
+                new File(new File(PathManager.getSystemPath(), CACHE_DIRECTORY), project.getLocationHash()));
+    }
+
+    /**
+     * @return the hash of the output generated for these inputs, or null on a miss
+     */
+    @Nullable
+    String get(@NotNull final String inputKey) {
+        final File entry = entryFile(inputKey);
+        if (!entry.isFile()) {
+            return null;
+        }
+
+        try {
+            return FileUtil.loadFile(entry, StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            LOG.debug("Unreadable output cache entry " + entry, e);
+            return null;
+        }
+    }
+
+    void put(@NotNull final String inputKey, @NotNull final String outputHash) {
+        final File entry = entryFile(inputKey);
+        try {
+            FileUtil.writeToFile(entry, outputHash);
+        } catch (IOException e) {
+            LOG.warn("Cannot write output cache entry " + entry, e);
+        }
+    }
+
+    private File entryFile(final String inputKey) {
+        return new File(directory, IntentBuilderUtils.sha256(inputKey));
+    }
+}
@@ -0,0 +1,54 @@
+package com.mikeescom;
+
+import org.jetbrains.annotations.Nls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.codeInspection.LocalQuickFixAndIntentionActionOnPsiElement;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.Project;
+
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+
+public class IntentBuilderRegenerateFix extends LocalQuickFixAndIntentionActionOnPsiElement {
+
+    IntentBuilderRegenerateFix(@NotNull final PsiClass topLevelClass) {
+        super(topLevelClass);
+    }
+
+    @NotNull
+    @Override
+    public String getText() {
+        return getFamilyName();
+    }
+
+    @Nls
+    @NotNull
+    @Override
+    public String getFamilyName() {
+        return "Regenerate Intent Builder";
+    }
+
+    @Override
+    public boolean startInWriteAction() {
+        return false;
+    }
+
+    @Override
+    public void invoke(@NotNull final Project project, @NotNull final PsiFile file, @Nullable final Editor editor,
+                       @NotNull final PsiElement startElement, @NotNull final PsiElement endElement) {
+        if (editor == null) {
+            return;
+        }
+
+        // the handler works from the caret, so put it inside the class being regenerated
+        final PsiElement nameIdentifier = ((PsiClass) startElement).getNameIdentifier();
+        editor.getCaretModel().moveToOffset(nameIdentifier != null
+                ? nameIdentifier.getTextOffset() : startElement.getTextOffset());
+
+        new IntentBuilderHandler().invoke(project, editor, file);
+    }
+}
@@ -0,0 +1,106 @@
+package com.mikeescom;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.util.text.StringUtil;
+
+/**
+ * Snapshot of the non boolean generation settings, the boolean ones are {@link IntentBuilderOption}s.
+ */
+public final class IntentBuilderSettings {
+    /**
+     * Size in bytes above which the generated payload check logs a warning.
+     */
+    @NonNls
+    public static final String PAYLOAD_WARN_THRESHOLD_PROPERTY = "GenerateStepBuilder.payloadWarnThreshold";
+    /**
+     * Qualified name of a class with a static
+     * {@code onIntentPayload(String target, int totalBytes, Map<String, Integer> bytesPerKey)} method
+     * that receives every measurement, empty for none.
+     */
+    @NonNls
+    public static final String PAYLOAD_LISTENER_PROPERTY = "GenerateStepBuilder.payloadListener";
+
+    /**
+     * Size in bytes from which {@link IntentBuilderOption#COMPRESS_LARGE_EXTRAS} deflates a value, smaller
+     * values are sent as is.
+     */
+    @NonNls
+    public static final String COMPRESS_THRESHOLD_PROPERTY = "GenerateStepBuilder.compressThreshold";
+
+    /**
+     * Class with static {@code isEnabled()}, {@code beginSection(String)} and {@code endSection()} methods
+     * used by {@link IntentBuilderOption#TRACE_SECTIONS}.
+     */
+    @NonNls
+    public static final String TRACE_CLASS_PROPERTY = "GenerateStepBuilder.traceClass";
+
+    /**
+     * Milliseconds during which {@link IntentBuilderOption#LAUNCH_GUARD} drops a repeated identical launch.
+     */
+    @NonNls
+    public static final String LAUNCH_GUARD_WINDOW_PROPERTY = "GenerateStepBuilder.launchGuardWindow";
+
+    private static final int DEFAULT_PAYLOAD_WARN_THRESHOLD = 100 * 1024;
+    private static final int DEFAULT_LAUNCH_GUARD_WINDOW = 500;
+    @NonNls
+    private static final String DEFAULT_TRACE_CLASS = "androidx.tracing.Trace";
+    private static final int DEFAULT_COMPRESS_THRESHOLD = 1024;
+
+    private final int payloadWarnThreshold;
+    private final String payloadListener;
+    private final int compressThreshold;
+    private final String traceClass;
+    private final int launchGuardWindow;
+
+    private IntentBuilderSettings(final int payloadWarnThreshold, final String payloadListener,
+                                  final int compressThreshold, final String traceClass,
+                                  final int launchGuardWindow) {
+        this.payloadWarnThreshold = payloadWarnThreshold;
+        this.payloadListener = payloadListener;
+        this.compressThreshold = compressThreshold;
+        this.traceClass = traceClass;
+        this.launchGuardWindow = launchGuardWindow;
+    }
+
+    public static IntentBuilderSettings current() {
+        final PropertiesComponent propertiesComponent = PropertiesComponent.getInstance();
+        final String listener = propertiesComponent.getValue(PAYLOAD_LISTENER_PROPERTY);
+        final String traceClass = propertiesComponent.getValue(TRACE_CLASS_PROPERTY);
+        return new IntentBuilderSettings(
+                propertiesComponent.getInt(PAYLOAD_WARN_THRESHOLD_PROPERTY, DEFAULT_PAYLOAD_WARN_THRESHOLD),
+                StringUtil.isEmptyOrSpaces(listener) ? null : listener.trim(),
+                propertiesComponent.getInt(COMPRESS_THRESHOLD_PROPERTY, DEFAULT_COMPRESS_THRESHOLD),
+                StringUtil.isEmptyOrSpaces(traceClass) ? DEFAULT_TRACE_CLASS : traceClass.trim(),
+                propertiesComponent.getInt(LAUNCH_GUARD_WINDOW_PROPERTY, DEFAULT_LAUNCH_GUARD_WINDOW));
+    }
+
+    public int getPayloadWarnThreshold() {
+        return payloadWarnThreshold;
+    }
+
+    @Nullable
+    public String getPayloadListener() {
+        return payloadListener;
+    }
+
+    public int getCompressThreshold() {
+        return compressThreshold;
+    }
+
+    public String getTraceClass() {
+        return traceClass;
+    }
+
+    public int getLaunchGuardWindow() {
+        return launchGuardWindow;
+    }
+
+    @Override
+    public String toString() {
+        return payloadWarnThreshold + "," + payloadListener + "," + compressThreshold + "," + traceClass + ","
+                + launchGuardWindow;
+    }
+}
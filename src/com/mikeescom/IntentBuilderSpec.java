@@ -0,0 +1,891 @@
+package com.mikeescom;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.codeInsight.generation.PsiFieldMember;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.text.StringUtil;
+
+import com.intellij.psi.CommonClassNames;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiCompiledElement;
+import com.intellij.psi.PsiExpression;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiLiteralExpression;
+import com.intellij.psi.PsiMethod;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.PsiModifierList;
+import com.intellij.psi.PsiPrimitiveType;
+import com.intellij.psi.PsiType;
+import com.intellij.psi.PsiTypeElement;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PropertyUtil;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.IncorrectOperationException;
+
+/**
+ * Everything the generator needs to know about a class, resolved up front in a read action.
+ * Applying a spec only creates PSI from the texts collected here.
+ */
+public final class IntentBuilderSpec {
+    @NonNls
+    private static final String BUILD_CONFIG_CLASS_NAME = "BuildConfig";
+    /**
+     * Debug check of a module without BuildConfig, eg. AGP 8 turns it off by default. It compiles anywhere
+     * build(Context) is generated but is evaluated at runtime, so the measurement is not stripped in release.
+     */
+    @NonNls
+    private static final String DEBUGGABLE_FLAG = "(context.getApplicationInfo().flags"
+            + " & android.content.pm.ApplicationInfo.FLAG_DEBUGGABLE) != 0";
+    @NonNls
+    static final String KEY_CONSTANT_PREFIX = "EXTRA_";
+    /**
+     * Suffix of the field holding the compressed bytes of an extra until its getter decodes them.
+     */
+    @NonNls
+    static final String COMPRESSED_HOLDER_SUFFIX = "Compressed";
+    /**
+     * Suffix of the field holding the Bundle with the Binder of a shared memory extra until its getter maps it.
+     */
+    @NonNls
+    static final String SHARED_MEMORY_HOLDER_SUFFIX = "SharedMemory";
+    @NonNls
+    static final String SHARED_MEMORY_CLASS_NAME = "android.os.SharedMemory";
+    /**
+     * Type of the shared memory holders: an Intent cannot carry the descriptor of a region, only a Binder
+     * handing it out.
+     */
+    @NonNls
+    static final String SHARED_MEMORY_HOLDER_TYPE = "android.os.Bundle";
+    /**
+     * android.os.SharedMemory is API 27, below it or when the minSdk of the module cannot be read the
+     * generated code checks the version and falls back to the bytes in the Bundle.
+     */
+    static final int SHARED_MEMORY_MIN_SDK = 27;
+    @NonNls
+    private static final String BYTE_BUFFER_CLASS_NAME = "java.nio.ByteBuffer";
+    @NonNls
+    private static final String UTF_8 = "java.nio.charset.Charset.forName(\"UTF-8\")";
+
+    private final SmartPsiElementPointer<PsiClass> topLevelClass;
+    private final String className;
+    private final List<Field> fields;
+    private final List<Extra> extras;
+    private final List<KeyConstant> keyConstants;
+    private final Set<IntentBuilderOption> options;
+    private final IntentBuilderSettings settings;
+    private final String fingerprint;
+    private final String debugFlag;
+    private final boolean sharedMemoryVersionCheck;
+    private final IntentBuilderSpec baseSpec;
+
+    private IntentBuilderSpec(final SmartPsiElementPointer<PsiClass> topLevelClass, final String className,
+                              final List<Field> fields, final List<Extra> extras,
+                              final List<KeyConstant> keyConstants,
+                              final Set<IntentBuilderOption> options, final IntentBuilderSettings settings,
+                              final String fingerprint, final String debugFlag,
+                              final boolean sharedMemoryVersionCheck, @Nullable final IntentBuilderSpec baseSpec) {
+        this.topLevelClass = topLevelClass;
+        this.className = className;
+        this.fields = Collections.unmodifiableList(fields);
+        this.extras = Collections.unmodifiableList(extras);
+        this.keyConstants = Collections.unmodifiableList(keyConstants);
+        this.options = Collections.unmodifiableSet(options);
+        this.settings = settings;
+        this.fingerprint = fingerprint;
+        this.debugFlag = debugFlag;
+        this.sharedMemoryVersionCheck = sharedMemoryVersionCheck;
+        this.baseSpec = baseSpec;
+    }
+
+    /**
+     * Computes the spec in a background read action under a modal progress, must be called on the EDT.
+     *
+     * @return the spec, or null if the computation was cancelled or refused
+     */
+    @Nullable
+    public static IntentBuilderSpec computeInBackground(final Project project, final PsiClass topLevelClass,
+                                                        final List<PsiFieldMember> members,
+                                                        final Map<String, String[]> tags,
+                                                        final Set<IntentBuilderOption> options) {
+        try {
+            return ProgressManager.getInstance().runProcessWithProgressSynchronously(
+                    () -> ApplicationManager.getApplication().runReadAction((Computable<IntentBuilderSpec>) () ->
+                            getOrCompute(topLevelClass, members, tags, options)),
+                    "Preparing Intent Builder", true, project);
+        } catch (ProcessCanceledException e) {
+            return null;
+        } catch (IndexNotReadyException e) {
+            DumbService.getInstance(project).showDumbModeNotification(
+                    "Intent Builder needs indexing to finish for the field types of " + topLevelClass.getName());
+            return null;
+        } catch (IncorrectOperationException e) {
+            Messages.showErrorDialog(project, e.getMessage(), "Intent Builder");
+            return null;
+        }
+    }
+
+    /**
+     * Returns the cached spec for these inputs, computing it if the PSI changed since. Requires a read action.
+     *
+     * @throws IncorrectOperationException if the tags of inherited fields differ from the ones the base
+     * builder was generated with
+     */
+    @NotNull
+    public static IntentBuilderSpec getOrCompute(final PsiClass topLevelClass, final List<PsiFieldMember> members,
+                                                 final Map<String, String[]> tags,
+                                                 final Set<IntentBuilderOption> options) {
+        final ConcurrentMap<String, IntentBuilderSpec> cache = CachedValuesManager.getCachedValue(topLevelClass,
+                () -> CachedValueProvider.Result.create(new ConcurrentHashMap<String, IntentBuilderSpec>(),
+                        PsiModificationTracker.MODIFICATION_COUNT));
+
+        final String cacheKey = cacheKey(members, tags, options);
+        IntentBuilderSpec spec = cache.get(cacheKey);
+        if (spec == null) {
+            spec = compute(topLevelClass, members, tags, options);
+            cache.put(cacheKey, spec);
+        }
+        return spec;
+    }
+
+    /**
+     * @return a key identifying every input of the spec, the fields, tags, options and settings
+     */
+    static String cacheKey(final List<PsiFieldMember> members, final Map<String, String[]> tags,
+                           final Set<IntentBuilderOption> options) {
+        final StringBuilder key = new StringBuilder(IntentBuilderUtils.fieldsFingerprint(members));
+        for (final Map.Entry<String, String[]> tag : new TreeMap<String, String[]>(tags).entrySet()) {
+            key.append('|').append(tag.getKey());
+            for (final String value : tag.getValue()) {
+                key.append(',').append(value);
+            }
+        }
+        return key.append('|').append(options).append('|').append(IntentBuilderSettings.current()).toString();
+    }
+
+    /**
+     * @return a key of what a spec reads beyond the fields, tags and options: the base class with its
+     * ExtrasBuilder, the module minSdk, the BuildConfig and the codec each field type resolves to. Requires
+     * indices.
+     */
+    static String dependencyKey(final PsiClass topLevelClass, final List<PsiFieldMember> members,
+                                final Map<String, String[]> tags, final Set<IntentBuilderOption> options) {
+        final StringBuilder key = new StringBuilder();
+        final PsiClass baseClass = options.contains(IntentBuilderOption.BASE_BUILDERS)
+                ? findBaseClass(topLevelClass, members) : null;
+        if (baseClass != null) {
+            key.append(baseClass.getQualifiedName()).append(':').append(IntentBuilderUtils.sha256(baseClass.getText()));
+        }
+        key.append('|');
+        if (requestsSharedMemory(tags)) {
+            key.append(IntentBuilderUtils.findMinSdkVersion(topLevelClass));
+        }
+        key.append('|');
+        if (options.contains(IntentBuilderOption.PAYLOAD_SIZE_CHECK)) {
+            key.append(findDebugFlag(topLevelClass));
+        }
+        final boolean enumsByName = options.contains(IntentBuilderOption.ENUMS_BY_NAME);
+        for (final PsiFieldMember member : members) {
+            final IntentExtraCodec codec = IntentExtraCodecRegistry.getInstance().find(
+                    member.getElement().getType(), enumsByName);
+            key.append('|').append(member.getElement().getName()).append(':')
+                    .append(codec != null ? codec.getClass().getName() + codec.getTypeNames() : null);
+        }
+        return key.toString();
+    }
+
+    @NotNull
+    private static IntentBuilderSpec compute(final PsiClass topLevelClass, final List<PsiFieldMember> members,
+                                             final Map<String, String[]> tags,
+                                             final Set<IntentBuilderOption> options) {
+        final String fingerprint = IntentBuilderUtils.fieldsFingerprint(members);
+        final PsiClass baseClass = options.contains(IntentBuilderOption.BASE_BUILDERS)
+                ? findBaseClass(topLevelClass, members) : null;
+        if (baseClass == null) {
+            return compute(topLevelClass, members, tags, options, fingerprint, null);
+        }
+
+        // the inherited fields go to the generic builder of the base class, the class keeps its own
+        final List<PsiFieldMember> inheritedMembers = new ArrayList<PsiFieldMember>();
+        final List<PsiFieldMember> ownMembers = new ArrayList<PsiFieldMember>();
+        for (final PsiFieldMember member : members) {
+            (topLevelClass.equals(member.getElement().getContainingClass()) ? ownMembers : inheritedMembers)
+                    .add(member);
+        }
+
+        final Map<String, String[]> inheritedTags = new HashMap<String, String[]>();
+        final Map<String, String[]> ownTags = new HashMap<String, String[]>(tags);
+        for (final PsiFieldMember member : inheritedMembers) {
+            final String[] tag = ownTags.remove(member.getElement().getName());
+            if (tag != null) {
+                inheritedTags.put(member.getElement().getName(), tag);
+            }
+        }
+        checkBaseTags(topLevelClass, baseClass, inheritedMembers, inheritedTags,
+                options.contains(IntentBuilderOption.COMPACT_KEYS));
+
+        final Set<IntentBuilderOption> baseOptions = EnumSet.noneOf(IntentBuilderOption.class);
+        baseOptions.addAll(options);
+        baseOptions.remove(IntentBuilderOption.BASE_BUILDERS);
+        final IntentBuilderSpec baseSpec = compute(baseClass, inheritedMembers, inheritedTags, baseOptions,
+                IntentBuilderUtils.fieldsFingerprint(inheritedMembers), null);
+        return compute(topLevelClass, ownMembers, ownTags, options, fingerprint, baseSpec);
+    }
+
+    /**
+     * The base builder is shared by every subclass, regenerating it from tags that differ from the ones it
+     * was generated with would change the extras of the other subclasses. Only the key constants are
+     * compared: a tag without one, typed as a reference, is only checked when every tag was recovered.
+     */
+    private static void checkBaseTags(final PsiClass topLevelClass, final PsiClass baseClass,
+                                      final List<PsiFieldMember> inheritedMembers,
+                                      final Map<String, String[]> inheritedTags, final boolean compact) {
+        if (baseClass.findInnerClassByName(IntentBuilderGenerator.BASE_BUILDER_CLASS_NAME, false) == null) {
+            return;
+        }
+
+        final Map<String, String[]> baseTags = IntentBuilderCollector.recoverTags(baseClass, inheritedMembers);
+        final boolean allRecovered = baseTags.size() >= IntentBuilderCollector.countBaseExtras(baseClass);
+        for (final PsiFieldMember member : inheritedMembers) {
+            final String fieldName = member.getElement().getName();
+            final String[] baseTag = baseTags.get(fieldName);
+            final String[] tag = inheritedTags.get(fieldName);
+            final boolean differs;
+            if (baseTag == null) {
+                differs = tag != null && allRecovered;
+            } else {
+                // a compact key is derived from the field name, the typed tag does not matter
+                differs = tag == null || (!compact && !baseTag[1].equals(tag[1].trim()))
+                        || Boolean.parseBoolean(baseTag[2]) != (tag.length > 2 && Boolean.parseBoolean(tag[2]));
+            }
+            if (differs) {
+                throw new IncorrectOperationException(String.format("The tag of %s differs from the one the "
+                        + "ExtrasBuilder of %s was generated with, and other subclasses share it. Use the same "
+                        + "tags for the inherited fields of %s.", fieldName, baseClass.getName(),
+                        topLevelClass.getName()));
+            }
+        }
+    }
+
+    /**
+     * @return the direct superclass when it is an editable top level source class and some of the fields
+     * are inherited, null otherwise
+     */
+    @Nullable
+    private static PsiClass findBaseClass(final PsiClass topLevelClass, final List<PsiFieldMember> members) {
+        final PsiClass superClass = topLevelClass.getSuperClass();
+        if (superClass == null || superClass instanceof PsiCompiledElement
+                || superClass.getContainingClass() != null || !superClass.isWritable()) {
+            return null;
+        }
+
+        for (final PsiFieldMember member : members) {
+            if (!topLevelClass.equals(member.getElement().getContainingClass())) {
+                return superClass;
+            }
+        }
+        return null;
+    }
+
+    @NotNull
+    private static IntentBuilderSpec compute(final PsiClass topLevelClass, final List<PsiFieldMember> members,
+                                             final Map<String, String[]> tags,
+                                             final Set<IntentBuilderOption> options, final String fingerprint,
+                                             @Nullable final IntentBuilderSpec baseSpec) {
+        final boolean enumsByName = options.contains(IntentBuilderOption.ENUMS_BY_NAME);
+        final ExtraContainer container = containerFor(options);
+        final List<KeyConstant> keyConstants = new ArrayList<KeyConstant>();
+        // the inherited extras go into the same Intent, their keys are taken
+        final Set<String> usedCompactKeys = new HashSet<String>();
+        if (baseSpec != null) {
+            for (final KeyConstant constant : baseSpec.getKeyConstants()) {
+                usedCompactKeys.add(StringUtil.unquoteString(constant.getValue()));
+            }
+        }
+        final Map<String, String> keys = computeKeys(topLevelClass, members, tags,
+                options.contains(IntentBuilderOption.COMPACT_KEYS), keyConstants, usedCompactKeys);
+
+        final Map<String, PsiField> fieldsByName = new HashMap<String, PsiField>();
+        final Set<String> sharedMemoryFields = new HashSet<String>();
+        final List<Field> fields = new ArrayList<Field>();
+        for (final PsiFieldMember member : members) {
+            ProgressManager.checkCanceled();
+            final PsiField field = member.getElement();
+            fieldsByName.put(field.getName(), field);
+            if (isSharedMemoryTransport(field, tags.get(field.getName()))) {
+                sharedMemoryFields.add(field.getName());
+            }
+            fields.add(computeField(topLevelClass, field, keys, options, sharedMemoryFields.contains(field.getName())));
+        }
+
+        final List<Extra> extras = new ArrayList<Extra>();
+        for (final String fieldName : orderedTagNames(members, tags)) {
+            final String key = keys.get(fieldName);
+            final PsiField field = fieldsByName.get(fieldName);
+            final String putStatement;
+            if (sharedMemoryFields.contains(fieldName)) {
+                putStatement = generateSharedMemoryPutExtra(container, key, fieldName);
+            } else if (field != null && isCompressible(field, options)) {
+                putStatement = generateCompressedPutExtra(container, field, key, fieldName);
+            } else {
+                putStatement = generatePutExtra(container, field, key, fieldName, enumsByName);
+            }
+            extras.add(new Extra(fieldName, key, putStatement));
+        }
+
+        final SmartPsiElementPointer<PsiClass> pointer =
+                SmartPointerManager.getInstance(topLevelClass.getProject()).createSmartPsiElementPointer(topLevelClass);
+        final Set<IntentBuilderOption> optionsCopy = EnumSet.noneOf(IntentBuilderOption.class);
+        optionsCopy.addAll(options);
+        final String debugFlag = options.contains(IntentBuilderOption.PAYLOAD_SIZE_CHECK)
+                ? findDebugFlag(topLevelClass) : null;
+        // a minSdk set through a version catalog or a convention plugin is not read, the version is then checked
+        final boolean sharedMemoryVersionCheck = !sharedMemoryFields.isEmpty()
+                && IntentBuilderUtils.findMinSdkVersion(topLevelClass) < SHARED_MEMORY_MIN_SDK;
+        return new IntentBuilderSpec(pointer, topLevelClass.getName(), fields, extras, keyConstants, optionsCopy,
+                IntentBuilderSettings.current(), fingerprint, debugFlag, sharedMemoryVersionCheck, baseSpec);
+    }
+
+    /**
+     * @return the tagged field names in field declaration order, then tags without a selected field by name,
+     * so regenerating an unchanged class writes the extras in the same order
+     */
+    private static List<String> orderedTagNames(final List<PsiFieldMember> members,
+                                                final Map<String, String[]> tags) {
+        final Set<String> remaining = new TreeSet<String>(tags.keySet());
+        final List<String> names = new ArrayList<String>(tags.size());
+        for (final PsiFieldMember member : members) {
+            final String fieldName = member.getElement().getName();
+            if (remaining.remove(fieldName)) {
+                names.add(fieldName);
+            }
+        }
+        names.addAll(remaining);
+        return names;
+    }
+
+    /**
+     * Assigns the key expression of every tagged field. String literal tags, and every tag in compact mode,
+     * get a constant added to {@code constants}; other tags are used as typed, eg. a reference to an
+     * existing constant. A compact key already generated for a field keeps its value, so adding a colliding
+     * field only lengthens the key of the new one and persisted Intents stay readable.
+     */
+    private static Map<String, String> computeKeys(final PsiClass topLevelClass,
+                                                   final List<PsiFieldMember> members,
+                                                   final Map<String, String[]> tags, final boolean compact,
+                                                   final List<KeyConstant> constants,
+                                                   final Set<String> usedCompactKeys) {
+        final Map<String, String> existingCompactKeys = new HashMap<String, String>();
+        if (compact) {
+            for (final PsiFieldMember member : members) {
+                final String fieldName = member.getElement().getName();
+                final String existingKey = findExistingCompactKey(topLevelClass, fieldName);
+                // a key of the base class wins, the subclass key is the one lengthened
+                if (tags.containsKey(fieldName) && existingKey != null && usedCompactKeys.add(existingKey)) {
+                    existingCompactKeys.put(fieldName, existingKey);
+                }
+            }
+        }
+
+        final Map<String, String> keys = new HashMap<String, String>();
+        for (final PsiFieldMember member : members) {
+            final String fieldName = member.getElement().getName();
+            final String[] tagData = tags.get(fieldName);
+            if (tagData == null) {
+                continue;
+            }
+
+            final String tag = tagData[1].trim();
+            if (!compact && !tag.startsWith("\"")) {
+                keys.put(fieldName, tag);
+                continue;
+            }
+
+            final String constantName = KEY_CONSTANT_PREFIX + IntentBuilderUtils.toConstantName(fieldName);
+            final String existingKey = existingCompactKeys.get(fieldName);
+            final String value = compact
+                    ? "\"" + (existingKey != null ? existingKey
+                    : IntentBuilderUtils.compactKey(fieldName, usedCompactKeys)) + "\""
+                    : tag;
+            constants.add(new KeyConstant(constantName, value));
+            keys.put(fieldName, constantName);
+        }
+
+        for (final Map.Entry<String, String[]> entry : tags.entrySet()) {
+            if (!keys.containsKey(entry.getKey())) {
+                keys.put(entry.getKey(), entry.getValue()[1]);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the value of the key constant of the field when it is a compact key of that field, null for
+     * a new field or a key typed in the tag editor
+     */
+    @Nullable
+    private static String findExistingCompactKey(final PsiClass topLevelClass, final String fieldName) {
+        final PsiField constant = topLevelClass.findFieldByName(
+                KEY_CONSTANT_PREFIX + IntentBuilderUtils.toConstantName(fieldName), false);
+        final PsiExpression initializer = constant != null ? constant.getInitializer() : null;
+        if (!(initializer instanceof PsiLiteralExpression)
+                || !(((PsiLiteralExpression) initializer).getValue() instanceof String)) {
+            return null;
+        }
+
+        final String value = (String) ((PsiLiteralExpression) initializer).getValue();
+        return IntentBuilderUtils.isCompactKey(fieldName, value) ? value : null;
+    }
+
+    /**
+     * Looks for the app BuildConfig in the package of the class and its parent packages, an unqualified
+     * BuildConfig would not compile in a module without one.
+     */
+    private static String findDebugFlag(final PsiClass topLevelClass) {
+        if (DumbService.isDumb(topLevelClass.getProject())) {
+            return DEBUGGABLE_FLAG;
+        }
+
+        final JavaPsiFacade facade = JavaPsiFacade.getInstance(topLevelClass.getProject());
+        final GlobalSearchScope scope = topLevelClass.getResolveScope();
+
+        String packageName = StringUtil.getPackageName(StringUtil.notNullize(topLevelClass.getQualifiedName()));
+        while (!packageName.isEmpty()) {
+            final PsiClass buildConfig = facade.findClass(packageName + "." + BUILD_CONFIG_CLASS_NAME, scope);
+            if (buildConfig != null && buildConfig.findFieldByName("DEBUG", false) != null) {
+                return buildConfig.getQualifiedName() + ".DEBUG";
+            }
+            packageName = StringUtil.getPackageName(packageName);
+        }
+        return DEBUGGABLE_FLAG;
+    }
+
+    private static Field computeField(final PsiClass topLevelClass, final PsiField field,
+                                      final Map<String, String> keys, final Set<IntentBuilderOption> options,
+                                      final boolean sharedMemory) {
+        final String fieldName = field.getName();
+        final PsiType fieldType = field.getType();
+
+        boolean isFinal = false;
+        final PsiModifierList modifierList = field.getModifierList();
+        if (modifierList != null) {
+            isFinal = modifierList.hasModifierProperty(PsiModifier.FINAL);
+        }
+
+        final PsiMethod setter = findSetter(topLevelClass, field);
+
+        final String capitalizedName = IntentBuilderUtils.capitalize(fieldName);
+        final String getterName = PsiType.BOOLEAN.equals(fieldType)
+                ? String.format("is%s", capitalizedName)
+                : String.format("get%s", capitalizedName);
+
+        final String key = keys.get(fieldName);
+        if (key != null && sharedMemory) {
+            // the constructor only keeps the Binder, the getter fetches and maps the region on first access
+            final String holder = fieldName + SHARED_MEMORY_HOLDER_SUFFIX;
+            return new Field(fieldName, typeText(field), fieldType.getPresentableText(),
+                    true, false, setter != null ? setter.getName() : null,
+                    containerFor(options).get("Bundle", key, null), getterName, holder, SHARED_MEMORY_HOLDER_TYPE,
+                    String.format("%s(%s)", PsiType.BYTE.createArrayType().equals(fieldType)
+                            ? IntentBuilderGenerator.READ_SHARED_MEMORY_METHOD_NAME
+                            : IntentBuilderGenerator.MAP_SHARED_MEMORY_METHOD_NAME, holder));
+        }
+
+        if (key != null && isCompressible(field, options)) {
+            // the constructor only keeps the bytes, the getter decodes them on first access
+            final String holder = fieldName + COMPRESSED_HOLDER_SUFFIX;
+            final String decompressed = String.format("%s(%s)", IntentBuilderGenerator.DECOMPRESS_METHOD_NAME, holder);
+            return new Field(fieldName, typeText(field), fieldType.getPresentableText(),
+                    true, false, setter != null ? setter.getName() : null,
+                    containerFor(options).get("ByteArray", key, null), getterName, holder, "byte[]",
+                    PsiType.BYTE.createArrayType().equals(fieldType)
+                            ? decompressed : String.format("new String(%s, %s)", decompressed, UTF_8));
+        }
+
+        return new Field(fieldName, typeText(field), fieldType.getPresentableText(),
+                !isFinal || options.contains(IntentBuilderOption.FINAL_SETTERS), isFinal,
+                setter != null ? setter.getName() : null,
+                generateIntentTag(field, keys, options), getterName, null, null, null);
+    }
+
+    private static boolean requestsSharedMemory(final Map<String, String[]> tags) {
+        for (final String[] tagData : tags.values()) {
+            if (tagData.length > 2 && Boolean.parseBoolean(tagData[2])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Non final byte[] and ByteBuffer fields whose shared memory column is checked in the tag editor are
+     * passed as an {@code android.os.SharedMemory} region, on devices before API 27 as the bytes themselves. The
+     * Intent carries a Binder that hands the region out, the system rejects an Intent with a descriptor.
+     */
+    private static boolean isSharedMemoryTransport(final PsiField field, @Nullable final String[] tagData) {
+        // the third tag value is the shared memory column
+        if (tagData == null || tagData.length < 3 || !Boolean.parseBoolean(tagData[2])
+                || field.hasModifierProperty(PsiModifier.FINAL)) {
+            return false;
+        }
+        final String typeText = typeText(field);
+        return PsiType.BYTE.createArrayType().equals(field.getType())
+                || BYTE_BUFFER_CLASS_NAME.equals(typeText) || "ByteBuffer".equals(typeText);
+    }
+
+    private static String generateSharedMemoryPutExtra(final ExtraContainer container, final String key,
+                                                       final String value) {
+        return String.format("if (%s != null) { %s }", value, container.put("Bundle", key,
+                String.format("%s(%s)", IntentBuilderGenerator.WRITE_SHARED_MEMORY_METHOD_NAME, value)));
+    }
+
+    /**
+     * Non final String and byte[] fields are compressed with {@link IntentBuilderOption#COMPRESS_LARGE_EXTRAS},
+     * a final field cannot be decoded lazily.
+     */
+    private static boolean isCompressible(final PsiField field, final Set<IntentBuilderOption> options) {
+        if (!options.contains(IntentBuilderOption.COMPRESS_LARGE_EXTRAS)
+                || field.hasModifierProperty(PsiModifier.FINAL)) {
+            return false;
+        }
+        return isString(field) || PsiType.BYTE.createArrayType().equals(field.getType());
+    }
+
+    private static boolean isString(final PsiField field) {
+        final String typeText = typeText(field);
+        return CommonClassNames.JAVA_LANG_STRING.equals(typeText) || "String".equals(typeText);
+    }
+
+    /**
+     * @return the canonical type text, or while indexing, the text the type is written with in the class
+     */
+    private static String typeText(final PsiField field) {
+        if (DumbService.isDumb(field.getProject())) {
+            final PsiTypeElement typeElement = field.getTypeElement();
+            return typeElement != null ? typeElement.getText() : field.getType().getPresentableText();
+        }
+        return field.getType().getCanonicalText();
+    }
+
+    /**
+     * @return the type passed to the codec, while indexing rebuilt from the registered qualified name so
+     * that its canonical text needs no resolve
+     */
+    private static PsiType codecType(final PsiField field) {
+        final PsiType type = field.getType();
+        if (!DumbService.isDumb(field.getProject()) || type.getDeepComponentType() instanceof PsiPrimitiveType) {
+            return type;
+        }
+
+        final String typeName = IntentExtraCodecRegistry.getInstance().findTypeNameWithoutIndices(type);
+        PsiType codecType = PsiType.getTypeByName(StringUtil.trimEnd(typeName, "[]"), field.getProject(),
+                field.getResolveScope());
+        for (int i = 0; i < type.getArrayDimensions(); i++) {
+            codecType = codecType.createArrayType();
+        }
+        return codecType;
+    }
+
+    @Nullable
+    private static PsiMethod findSetter(final PsiClass topLevelClass, final PsiField field) {
+        if (!DumbService.isDumb(topLevelClass.getProject())) {
+            return topLevelClass.findMethodBySignature(PropertyUtil.generateSetterPrototype(field), true);
+        }
+
+        // the prototype resolves the field type, while indexing match the setter of the class by name
+        for (final PsiMethod method : topLevelClass.findMethodsByName(PropertyUtil.suggestSetterName(field), false)) {
+            if (method.getParameterList().getParametersCount() == 1) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private static String generateCompressedPutExtra(final ExtraContainer container, final PsiField field,
+                                                     final String key, final String value) {
+        final String bytes = isString(field)
+                ? String.format("%s.getBytes(%s)", value, UTF_8) : value;
+        return String.format("if (%s != null) { %s }", value, container.put("ByteArray", key,
+                String.format("%s(%s)", IntentBuilderGenerator.COMPRESS_METHOD_NAME, bytes)));
+    }
+
+    /**
+     * @return where build() and the reading constructor access the extras
+     */
+    static ExtraContainer containerFor(final Set<IntentBuilderOption> options) {
+        return options.contains(IntentBuilderOption.BUNDLE_EXTRAS) ? ExtraContainer.BUNDLE : ExtraContainer.INTENT;
+    }
+
+    private static String generateIntentTag(final PsiField field, final Map<String, String> keys,
+                                            final Set<IntentBuilderOption> options) {
+        final boolean enumsByName = options.contains(IntentBuilderOption.ENUMS_BY_NAME);
+        final String key = keys.get(field.getName());
+        if (key == null) {
+            return "null";
+        }
+
+        final PsiType type = codecType(field);
+        final IntentExtraCodec codec = IntentExtraCodecRegistry.getInstance().find(type, enumsByName);
+        if (codec == null) {
+            return "null";
+        }
+        return codec.generateGet(containerFor(options), key, type);
+    }
+
+    private static String generatePutExtra(final ExtraContainer container, @Nullable final PsiField field,
+                                           final String key, final String value, final boolean enumsByName) {
+        final PsiType type = field != null ? codecType(field) : null;
+        final IntentExtraCodec codec = type != null
+                ? IntentExtraCodecRegistry.getInstance().find(type, enumsByName) : null;
+        if (codec == null) {
+            return container.put("Serializable", key, value);
+        }
+        return codec.generatePut(container, key, value, type);
+    }
+
+    @Nullable
+    public PsiClass getTopLevelClass() {
+        return topLevelClass.getElement();
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the selected fields in declaration order
+     */
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the tagged fields written to the Intent by build()
+     */
+    public List<Extra> getExtras() {
+        return extras;
+    }
+
+    /**
+     * @return the key constants to declare in the target class
+     */
+    public List<KeyConstant> getKeyConstants() {
+        return keyConstants;
+    }
+
+    public Set<IntentBuilderOption> getOptions() {
+        return options;
+    }
+
+    public boolean hasOption(final IntentBuilderOption option) {
+        return options.contains(option);
+    }
+
+    public IntentBuilderSettings getSettings() {
+        return settings;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the BuildConfig.DEBUG reference guarding debug only code, or a check of the debuggable flag of
+     * the application when the module has no BuildConfig, null unless
+     * {@link IntentBuilderOption#PAYLOAD_SIZE_CHECK} is set
+     */
+    @Nullable
+    public String getDebugFlag() {
+        return debugFlag;
+    }
+
+    /**
+     * @return whether the shared memory helpers check the device version, true when the minSdk of the
+     * module is below {@link #SHARED_MEMORY_MIN_SDK} or cannot be read
+     */
+    public boolean hasSharedMemoryVersionCheck() {
+        return sharedMemoryVersionCheck;
+    }
+
+    /**
+     * @return the spec of the generic builder generated in the base class for the inherited fields, null
+     * unless {@link IntentBuilderOption#BASE_BUILDERS} is set and the class inherits selected fields
+     */
+    @Nullable
+    public IntentBuilderSpec getBaseSpec() {
+        return baseSpec;
+    }
+
+    public static final class Field {
+        private final String name;
+        private final String typeText;
+        private final String presentableTypeText;
+        private final boolean step;
+        private final boolean declaredFinal;
+        private final String setterName;
+        private final String readExpression;
+        private final String getterName;
+        private final String holder;
+        private final String holderType;
+        private final String decodeExpression;
+
+        private Field(final String name, final String typeText, final String presentableTypeText,
+                      final boolean step, final boolean declaredFinal, final String setterName,
+                      final String readExpression, final String getterName,
+                      @Nullable final String holder, @Nullable final String holderType,
+                      @Nullable final String decodeExpression) {
+            this.name = name;
+            this.typeText = typeText;
+            this.presentableTypeText = presentableTypeText;
+            this.step = step;
+            this.declaredFinal = declaredFinal;
+            this.setterName = setterName;
+            this.readExpression = readExpression;
+            this.getterName = getterName;
+            this.holder = holder;
+            this.holderType = holderType;
+            this.decodeExpression = decodeExpression;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the canonical type text, shortened after the generated code is inserted
+         */
+        public String getTypeText() {
+            return typeText;
+        }
+
+        public String getPresentableTypeText() {
+            return presentableTypeText;
+        }
+
+        /**
+         * @return true if the field gets a step interface, false if it is passed to builder()
+         */
+        public boolean isStep() {
+            return step;
+        }
+
+        public boolean isDeclaredFinal() {
+            return declaredFinal;
+        }
+
+        @Nullable
+        public String getSetterName() {
+            return setterName;
+        }
+
+        public String getReadExpression() {
+            return readExpression;
+        }
+
+        public String getGetterName() {
+            return getterName;
+        }
+
+        /**
+         * @return the field the constructor stores the encoded extra in until the getter decodes it, null if
+         * the extra is read directly
+         */
+        @Nullable
+        public String getHolder() {
+            return holder;
+        }
+
+        /**
+         * @return the type of the holder, byte[] for a compressed extra or
+         * {@link IntentBuilderSpec#SHARED_MEMORY_HOLDER_TYPE}
+         */
+        @Nullable
+        public String getHolderType() {
+            return holderType;
+        }
+
+        /**
+         * @return the expression the getter decodes the holder with, null without a holder
+         */
+        @Nullable
+        public String getDecodeExpression() {
+            return decodeExpression;
+        }
+    }
+
+    public static final class Extra {
+        private final String fieldName;
+        private final String key;
+        private final String putStatement;
+
+        private Extra(final String fieldName, final String key, final String putStatement) {
+            this.fieldName = fieldName;
+            this.key = key;
+            this.putStatement = putStatement;
+        }
+
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the statement writing the field in build(), from the field type codec
+         */
+        public String getPutStatement() {
+            return putStatement;
+        }
+    }
+
+    public static final class KeyConstant {
+        private final String name;
+        private final String value;
+
+        private KeyConstant(final String name, final String value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the initializer text, a string literal
+         */
+        public String getValue() {
+            return value;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,6 +19,16 @@ public class IntentBuilderTagEditor {
     @Nullable
     public static List<PsiFieldMember> getFields(final List<PsiFieldMember> members,
                                                               final Project project) {
+        return getFields(members, project, Collections.<String, String[]>emptyMap());
+    }
+
+    /**
+     * @param initialTags the tags the dialog starts with
+     * @return the members, or null if the dialog was cancelled
+     */
+    @Nullable
+    public static List<PsiFieldMember> getFields(final List<PsiFieldMember> members, final Project project,
+                                                 final Map<String, String[]> initialTags) {
         if (members == null || members.isEmpty()) {
             return null;
         }
@@ -26,12 +37,14 @@ public class IntentBuilderTagEditor {
             return members;
         }
 
-        MemberVariablesEditor chooser = new MemberVariablesEditor(members);
+        MemberVariablesEditor chooser = new MemberVariablesEditor(members, initialTags);
         chooser.setTitle("Enter variable tags and Options for the Builder");
-        if (chooser.showAndGet()) {
-            tags = chooser.getTags();
+        if (!chooser.showAndGet()) {
+            // the tags of a previous run must not be applied to this class
+            return null;
         }
 
+        tags = chooser.getTags();
         return members;
     }
 
@@ -0,0 +1,81 @@
+package com.mikeescom;
+
+import org.jetbrains.annotations.NonNls;
+
+/**
+ * The generated members whose shape can be customized. A project overrides a member by adding
+ * {@code .idea/intentBuilder/<fileName>} containing the template, {@code ${variable}} placeholders are
+ * replaced with the values listed for each member.
+ */
+public enum IntentBuilderTemplate {
+    /**
+     * Name of the step setters. Variables: {@code name}, {@code Name} (capitalized).
+     */
+    SETTER_NAME("setterName.ft", "with${Name}"),
+    /**
+     * Step interface method. Variables: {@code returnType}, {@code methodName}, {@code type}, {@code param}.
+     */
+    STEP_METHOD("stepMethod.ft", "${returnType} ${methodName}(${type} ${param});"),
+    /**
+     * Builder setter implementing a step. Variables: {@code returnType}, {@code methodName}, {@code type},
+     * {@code param}, {@code field}.
+     */
+    SETTER("setter.ft", "@java.lang.Override\n"
+            + "public ${returnType} ${methodName}(${type} ${param}) {\n"
+            + "${field} = ${param};\n"
+            + "return this;\n"
+            + "}"),
+    /**
+     * Static entry point of the builder. Variables: {@code returnType}, {@code params}, {@code builder},
+     * {@code args}.
+     */
+    NEW_BUILDER("builder.ft", "public static ${returnType} builder(${params}) {\n"
+            + "return new ${builder}(${args});\n"
+            + "}"),
+    /**
+     * Builder build method. Variables: {@code intent}, {@code context}, {@code className}, {@code body}
+     * (the statements writing the extras).
+     */
+    BUILD("build.ft", "public ${intent} build(${context} context) {\n"
+            + "${intent} intent;\n"
+            + "intent = new ${intent}(context, ${className}.class);\n"
+            + "${body}\n"
+            + "return intent;\n"
+            + "}"),
+    /**
+     * Getter of a field in the target class. Variables: {@code type}, {@code methodName}, {@code field}.
+     */
+    GETTER("getter.ft", "public ${type} ${methodName}() {\n"
+            + "return ${field};\n"
+            + "}"),
+    /**
+     * Getter of a compressed or shared memory extra, decoding it on first access. Variables: {@code type},
+     * {@code methodName}, {@code field}, {@code holder} (the encoded extra), {@code decode} (the expression
+     * decoding it).
+     */
+    LAZY_GETTER("lazyGetter.ft", "public ${type} ${methodName}() {\n"
+            + "if (${holder} != null) {\n"
+            + "${field} = ${decode};\n"
+            + "${holder} = null;\n"
+            + "}\n"
+            + "return ${field};\n"
+            + "}");
+
+    @NonNls
+    private final String fileName;
+    @NonNls
+    private final String defaultText;
+
+    IntentBuilderTemplate(@NonNls final String fileName, @NonNls final String defaultText) {
+        this.fileName = fileName;
+        this.defaultText = defaultText;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getDefaultText() {
+        return defaultText;
+    }
+}
@@ -0,0 +1,175 @@
+package com.mikeescom;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+
+/**
+ * Compiled {@link IntentBuilderTemplate}s of a project. A template is parsed once and reused until its
+ * file modification stamp changes, rendering only concatenates the parsed segments.
+ */
+public final class IntentBuilderTemplates {
+    private static final Logger LOG = Logger.getInstance(IntentBuilderTemplates.class);
+
+    @NonNls
+    static final String TEMPLATES_DIRECTORY = ".idea/intentBuilder";
+    private static final long DEFAULT_TEMPLATE_STAMP = -1L;
+    private static final Key<ConcurrentMap<IntentBuilderTemplate, CachedTemplate>> CACHE_KEY =
+            Key.create("IntentBuilderTemplates.cache");
+
+    private IntentBuilderTemplates() { }
+
+    @NotNull
+    public static Compiled get(@NotNull final Project project, @NotNull final IntentBuilderTemplate template) {
+        final ConcurrentMap<IntentBuilderTemplate, CachedTemplate> cache = getCache(project);
+
+        final VirtualFile file = findTemplateFile(project, template);
+        final long stamp = file != null ? file.getModificationStamp() : DEFAULT_TEMPLATE_STAMP;
+
+        final CachedTemplate cached = cache.get(template);
+        if (cached != null && cached.stamp == stamp) {
+            return cached.compiled;
+        }
+
+        final Compiled compiled = Compiled.compile(loadText(template, file));
+        cache.put(template, new CachedTemplate(stamp, compiled));
+        return compiled;
+    }
+
+    /**
+     * Uses a template text as if the project had a file for it, null restores the built-in template.
+     */
+    @TestOnly
+    static void setTemplateText(@NotNull final Project project, @NotNull final IntentBuilderTemplate template,
+                                @Nullable final String text) {
+        if (text == null) {
+            getCache(project).remove(template);
+        } else {
+            getCache(project).put(template, new CachedTemplate(DEFAULT_TEMPLATE_STAMP, Compiled.compile(text)));
+        }
+    }
+
+    private static ConcurrentMap<IntentBuilderTemplate, CachedTemplate> getCache(final Project project) {
+        synchronized (CACHE_KEY) {
+            ConcurrentMap<IntentBuilderTemplate, CachedTemplate> cache = project.getUserData(CACHE_KEY);
+            if (cache == null) {
+                cache = new ConcurrentHashMap<IntentBuilderTemplate, CachedTemplate>();
+                project.putUserData(CACHE_KEY, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * @return a key that changes whenever the text of any template of the project changes
+     */
+    static String fingerprint(@NotNull final Project project) {
+        final StringBuilder fingerprint = new StringBuilder();
+        for (final IntentBuilderTemplate template : IntentBuilderTemplate.values()) {
+            fingerprint.append(get(project, template).text.hashCode()).append(',');
+        }
+        return fingerprint.toString();
+    }
+
+    @Nullable
+    private static VirtualFile findTemplateFile(final Project project, final IntentBuilderTemplate template) {
+        final VirtualFile baseDir = project.getBaseDir();
+        if (baseDir == null) {
+            return null;
+        }
+        return baseDir.findFileByRelativePath(TEMPLATES_DIRECTORY + "/" + template.getFileName());
+    }
+
+    private static String loadText(final IntentBuilderTemplate template, @Nullable final VirtualFile file) {
+        if (file == null) {
+            return template.getDefaultText();
+        }
+
+        try {
+            return VfsUtilCore.loadText(file);
+        } catch (IOException e) {
+            LOG.warn("Cannot read Intent Builder template " + file.getPath(), e);
+            return template.getDefaultText();
+        }
+    }
+
+    private static final class CachedTemplate {
+        private final long stamp;
+        private final Compiled compiled;
+
+        private CachedTemplate(final long stamp, final Compiled compiled) {
+            this.stamp = stamp;
+            this.compiled = compiled;
+        }
+    }
+
+    /**
+     * A template split into literal text and variable names, literals and variables alternate starting
+     * with a literal.
+     */
+    public static final class Compiled {
+        private final String text;
+        private final List<String> literals;
+        private final List<String> variables;
+
+        private Compiled(final String text, final List<String> literals, final List<String> variables) {
+            this.text = text;
+            this.literals = Collections.unmodifiableList(literals);
+            this.variables = Collections.unmodifiableList(variables);
+        }
+
+        static Compiled compile(final String text) {
+            final List<String> literals = new ArrayList<String>();
+            final List<String> variables = new ArrayList<String>();
+
+            int start = 0;
+            while (true) {
+                final int open = text.indexOf("${", start);
+                final int close = open < 0 ? -1 : text.indexOf('}', open + 2);
+                if (close < 0) {
+                    literals.add(text.substring(start));
+                    break;
+                }
+
+                literals.add(text.substring(start, open));
+                variables.add(text.substring(open + 2, close));
+                start = close + 1;
+            }
+            return new Compiled(text, literals, variables);
+        }
+
+        /**
+         * Unknown variables are left in the output as written so mistakes show up in the generated code.
+         */
+        public String render(final Map<String, String> values) {
+            final StringBuilder result = new StringBuilder();
+            for (int i = 0; i < variables.size(); i++) {
+                result.append(literals.get(i));
+
+                final String variable = variables.get(i);
+                final String value = values.get(variable);
+                if (value != null) {
+                    result.append(value);
+                } else {
+                    result.append("${").append(variable).append('}');
+                }
+            }
+            return result.append(literals.get(literals.size() - 1)).toString();
+        }
+    }
+}
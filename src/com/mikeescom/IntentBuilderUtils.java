@@ -4,8 +4,12 @@ import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import com.intellij.codeInsight.generation.PsiFieldMember;
+
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
 
 import com.intellij.psi.PsiClass;
 import com.intellij.psi.PsiElement;
@@ -19,9 +23,26 @@ import com.intellij.psi.PsiStatement;
 import com.intellij.psi.PsiType;
 import com.intellij.psi.util.PsiUtil;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
 public final class IntentBuilderUtils {
     @NonNls
     static final String JAVA_DOT_LANG = "java.lang.";
+    private static final int COMPACT_KEY_LENGTH = 2;
+    private static final Pattern GRADLE_MIN_SDK = Pattern.compile("minSdk(?:Version)?\\s*(?:=\\s*)?\\(?\\s*(\\d+)");
+    private static final Pattern MANIFEST_MIN_SDK = Pattern.compile("android:minSdkVersion\\s*=\\s*\"(\\d+)\"");
+    @NonNls
+    private static final String[] BUILD_FILE_NAMES = {"build.gradle", "build.gradle.kts"};
+    @NonNls
+    private static final String MANIFEST_PATH = "src/main/AndroidManifest.xml";
 
     private IntentBuilderUtils() { }
 
@@ -39,6 +60,59 @@ public final class IntentBuilderUtils {
         return Character.toUpperCase(str.charAt(0)) + str.substring(1);
     }
 
+    /**
+     * userProfileId to USER_PROFILE_ID
+     */
+    static String toConstantName(String fieldName) {
+        final StringBuilder constantName = new StringBuilder();
+        for (int i = 0; i < fieldName.length(); i++) {
+            final char c = fieldName.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(fieldName.charAt(i - 1))) {
+                constantName.append('_');
+            }
+            constantName.append(Character.toUpperCase(c));
+        }
+        return constantName.toString();
+    }
+
+    /**
+     * Short key derived from the field name only. Keys already used are skipped by taking more characters
+     * of the hash, so the keys generated before must be in {@code usedKeys} for them to stay the same.
+     */
+    static String compactKey(String fieldName, Set<String> usedKeys) {
+        final String hash = compactHash(fieldName);
+        for (int length = Math.min(COMPACT_KEY_LENGTH, hash.length()); length <= hash.length(); length++) {
+            final String key = hash.substring(hash.length() - length);
+            if (usedKeys.add(key)) {
+                return key;
+            }
+        }
+
+        // the whole hash collides, fall back to the field name, numbered if a key of the base class took it
+        String key = fieldName;
+        for (int i = 2; !usedKeys.add(key); i++) {
+            key = fieldName + i;
+        }
+        return key;
+    }
+
+    /**
+     * @return whether {@link #compactKey} may have returned the key for the field
+     */
+    static boolean isCompactKey(String fieldName, String key) {
+        final String hash = compactHash(fieldName);
+        if (key.length() >= Math.min(COMPACT_KEY_LENGTH, hash.length()) && hash.endsWith(key)) {
+            return true;
+        }
+        return key.startsWith(fieldName) && key.substring(fieldName.length()).matches("\\d*");
+    }
+
+    private static String compactHash(String fieldName) {
+        final CRC32 crc = new CRC32();
+        crc.update(fieldName.getBytes(StandardCharsets.UTF_8));
+        return Long.toString(crc.getValue(), Character.MAX_RADIX);
+    }
+
     static String stripJavaLang(String typeString) {
         return typeString.startsWith(JAVA_DOT_LANG) ? typeString.substring(JAVA_DOT_LANG.length()) : typeString;
     }
@@ -72,6 +146,67 @@ public final class IntentBuilderUtils {
         return false;
     }
 
+    /**
+     * Compact hash of the field names and types a builder is generated from. Only presentable
+     * type texts are used so it can be recomputed cheaply while highlighting.
+     */
+    static String fieldsFingerprint(List<PsiFieldMember> members) {
+        final CRC32 crc = new CRC32();
+        for (final PsiFieldMember member : members) {
+            final PsiField field = member.getElement();
+            final String entry = field.getName() + ":" + field.getType().getPresentableText() + ";";
+            crc.update(entry.getBytes(StandardCharsets.UTF_8));
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Reads the minSdk of the module of an element, from the nearest build file above its file or else from
+     * the main manifest next to that build file.
+     *
+     * @return the minSdk, or -1 if it is not declared as a number
+     */
+    static int findMinSdkVersion(PsiElement element) {
+        final PsiFile file = element.getContainingFile();
+        final VirtualFile virtualFile = file != null ? file.getOriginalFile().getVirtualFile() : null;
+        for (VirtualFile directory = virtualFile != null ? virtualFile.getParent() : null; directory != null;
+             directory = directory.getParent()) {
+            for (final String buildFileName : BUILD_FILE_NAMES) {
+                final VirtualFile buildFile = directory.findChild(buildFileName);
+                if (buildFile == null) {
+                    continue;
+                }
+
+                final int minSdk = readVersion(buildFile, GRADLE_MIN_SDK);
+                final VirtualFile manifest = directory.findFileByRelativePath(MANIFEST_PATH);
+                return minSdk >= 0 || manifest == null ? minSdk : readVersion(manifest, MANIFEST_MIN_SDK);
+            }
+        }
+        return -1;
+    }
+
+    private static int readVersion(VirtualFile file, Pattern pattern) {
+        try {
+            final Matcher matcher = pattern.matcher(VfsUtilCore.loadText(file));
+            return matcher.find() ? Integer.parseInt(matcher.group(1)) : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    static String sha256(String text) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     @Nullable
     public static PsiClass getTopLevelClass(Project project, PsiFile file, Editor editor) {
         final int offset = editor.getCaretModel().getOffset();
@@ -0,0 +1,81 @@
+package com.mikeescom;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import com.intellij.application.options.CodeStyle;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiElementFactory;
+import com.intellij.psi.search.GlobalSearchScope;
+
+/**
+ * Loads what the first generation of a session would otherwise pay for: the codec registry, the compiled
+ * templates, the resolved Android classes, the code style settings and the dialog classes. Runs once
+ * indexing is done, on a pooled thread, in read actions that give way to any write.
+ */
+public class IntentBuilderWarmUp implements StartupActivity {
+    private static final Logger LOG = Logger.getInstance(IntentBuilderWarmUp.class);
+
+    @NonNls
+    private static final String[] WARM_CLASS_NAMES = {"android.content.Context", "android.content.Intent",
+            "android.os.Bundle"};
+
+    @Override
+    public void runActivity(@NotNull final Project project) {
+        DumbService.getInstance(project).runWhenSmart(
+                () -> ApplicationManager.getApplication().executeOnPooledThread(() -> warmUp(project)));
+    }
+
+    /**
+     * Must not be called on the EDT.
+     */
+    static void warmUp(final Project project) {
+        final long start = System.nanoTime();
+        IntentExtraCodecRegistry.getInstance();
+        IntentBuilderOption.currentOptions();
+        IntentBuilderSettings.current();
+        loadDialogClasses();
+
+        final boolean completed = ProgressIndicatorUtils.runInReadActionWithWriteActionPriority(() -> {
+            if (project.isDisposed()) {
+                return;
+            }
+
+            for (final IntentBuilderTemplate template : IntentBuilderTemplate.values()) {
+                IntentBuilderTemplates.get(project, template);
+            }
+
+            final JavaPsiFacade facade = JavaPsiFacade.getInstance(project);
+            final GlobalSearchScope scope = GlobalSearchScope.allScope(project);
+            final PsiElementFactory factory = facade.getElementFactory();
+            for (final String className : WARM_CLASS_NAMES) {
+                facade.findClass(className, scope);
+                factory.createTypeFromText(className, null);
+            }
+            factory.createMethodFromText("public int warmUp() {\nreturn 0;\n}", null);
+            CodeStyle.getSettings(project);
+        });
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("Intent Builder warm-up %s in %d ms", completed ? "done" : "interrupted",
+                    (System.nanoTime() - start) / 1000000L));
+        }
+    }
+
+    private static void loadDialogClasses() {
+        final ClassLoader classLoader = IntentBuilderWarmUp.class.getClassLoader();
+        for (final Class<?> dialogClass : new Class<?>[]{MemberVariablesEditor.class, IntentBuilderTagEditor.class}) {
+            try {
+                Class.forName(dialogClass.getName(), true, classLoader);
+            } catch (ClassNotFoundException e) {
+                LOG.debug(e);
+            }
+        }
+    }
+}
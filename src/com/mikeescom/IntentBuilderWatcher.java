@@ -0,0 +1,233 @@
+package com.mikeescom;
+
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.codeInsight.generation.PsiFieldMember;
+import com.intellij.ide.util.PropertiesComponent;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiModifier;
+import com.intellij.psi.PsiTreeChangeAdapter;
+import com.intellij.psi.PsiTreeChangeEvent;
+import com.intellij.psi.SmartPointerManager;
+import com.intellij.psi.SmartPsiElementPointer;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.Alarm;
+import com.intellij.util.IncorrectOperationException;
+import com.intellij.util.ui.update.MergingUpdateQueue;
+import com.intellij.util.ui.update.Update;
+
+/**
+ * Opt-in watch mode: regenerates the Builder of a class after its fields changed. Edits are coalesced
+ * per class in a single merging queue that fires once typing paused for the debounce delay, the spec is
+ * computed on a pooled thread in a read action that yields to writes, and only a class whose recorded
+ * fingerprint no longer matches its fields is regenerated. A class whose tags cannot all be recovered from
+ * the key constants is left alone, and the regeneration is undo transparent so undo reverts the user's edit.
+ */
+public class IntentBuilderWatcher implements Disposable {
+    @NonNls
+    public static final String WATCH_MODE_PROPERTY = "GenerateStepBuilder.watchMode";
+    /**
+     * Milliseconds without field edits before a class is regenerated.
+     */
+    @NonNls
+    public static final String WATCH_DELAY_PROPERTY = "GenerateStepBuilder.watchDelay";
+
+    private static final int DEFAULT_WATCH_DELAY = 1500;
+
+    private final Project project;
+    private final MergingUpdateQueue queue;
+
+    public IntentBuilderWatcher(final Project project) {
+        this.project = project;
+        this.queue = new MergingUpdateQueue("IntentBuilderWatcher",
+                PropertiesComponent.getInstance().getInt(WATCH_DELAY_PROPERTY, DEFAULT_WATCH_DELAY), true, null,
+                this, null, Alarm.ThreadToUse.POOLED_THREAD);
+        this.queue.setRestartTimerOnAdd(true);
+    }
+
+    public static IntentBuilderWatcher getInstance(final Project project) {
+        return ServiceManager.getService(project, IntentBuilderWatcher.class);
+    }
+
+    private void start() {
+        PsiManager.getInstance(project).addPsiTreeChangeListener(new PsiTreeChangeAdapter() {
+            @Override
+            public void childAdded(@NotNull final PsiTreeChangeEvent event) {
+                fieldsChanged(event);
+            }
+
+            @Override
+            public void childRemoved(@NotNull final PsiTreeChangeEvent event) {
+                fieldsChanged(event);
+            }
+
+            @Override
+            public void childReplaced(@NotNull final PsiTreeChangeEvent event) {
+                fieldsChanged(event);
+            }
+
+            @Override
+            public void childrenChanged(@NotNull final PsiTreeChangeEvent event) {
+                fieldsChanged(event);
+            }
+        }, this);
+    }
+
+    private void fieldsChanged(final PsiTreeChangeEvent event) {
+        if (!PropertiesComponent.getInstance().getBoolean(WATCH_MODE_PROPERTY, false)
+                || !(event.getFile() instanceof PsiJavaFile)) {
+            return;
+        }
+
+        final PsiClass topLevelClass = findWatchedClass(event);
+        if (topLevelClass != null) {
+            queue.queue(new RegenerateUpdate(
+                    SmartPointerManager.getInstance(project).createSmartPsiElementPointer(topLevelClass)));
+        }
+    }
+
+    /**
+     * @return the top level class with a generated Builder whose own instance fields the event touched
+     */
+    @Nullable
+    private static PsiClass findWatchedClass(final PsiTreeChangeEvent event) {
+        final PsiElement child = event.getChild();
+        final PsiElement parent = event.getParent();
+
+        final PsiClass topLevelClass;
+        if (child instanceof PsiField && !child.isValid()) {
+            // a removed field
+            topLevelClass = parent instanceof PsiClass ? (PsiClass) parent : null;
+        } else if (child == null && parent instanceof PsiClass) {
+            // a generic change of the class body, the fingerprint check filters the ones not touching fields
+            topLevelClass = (PsiClass) parent;
+        } else {
+            final PsiField field = PsiTreeUtil.getParentOfType(child != null ? child : parent, PsiField.class,
+                    false);
+            if (field == null || field.hasModifierProperty(PsiModifier.STATIC)) {
+                return null;
+            }
+            topLevelClass = field.getContainingClass();
+        }
+
+        if (topLevelClass == null || topLevelClass.getContainingClass() != null) {
+            return null;
+        }
+        return topLevelClass.findInnerClassByName(IntentBuilderGenerator.BUILDER_CLASS_NAME, false) != null
+                ? topLevelClass : null;
+    }
+
+    @Override
+    public void dispose() { }
+
+    private final class RegenerateUpdate extends Update {
+        private final SmartPsiElementPointer<PsiClass> pointer;
+
+        RegenerateUpdate(final SmartPsiElementPointer<PsiClass> pointer) {
+            super(pointer);
+            this.pointer = pointer;
+        }
+
+        @Override
+        public void run() {
+            final IntentBuilderSpec[] spec = new IntentBuilderSpec[1];
+            final long[] modificationCount = new long[1];
+            final boolean completed = ProgressIndicatorUtils.runInReadActionWithWriteActionPriority(() -> {
+                modificationCount[0] = getModificationCount();
+                spec[0] = computeStaleSpec();
+            });
+            if (!completed) {
+                // interrupted by a write, try again after the next pause
+                queue.queue(new RegenerateUpdate(pointer));
+                return;
+            }
+
+            if (spec[0] == null) {
+                return;
+            }
+
+            // the user may have kept typing since: the spec is only applied to committed PSI it was computed
+            // from, otherwise it is computed again
+            ApplicationManager.getApplication().invokeLater(() -> PsiDocumentManager.getInstance(project)
+                    .performWhenAllCommitted(() -> {
+                        if (project.isDisposed()) {
+                            return;
+                        }
+                        if (getModificationCount() != modificationCount[0]) {
+                            queue.queue(new RegenerateUpdate(pointer));
+                            return;
+                        }
+
+                        final PsiClass topLevelClass = pointer.getElement();
+                        final PsiFile file = pointer.getContainingFile();
+                        if (topLevelClass != null && file != null) {
+                            IntentBuilderGenerator.generateUndoTransparent(project, file, spec[0]);
+                        }
+                    }), project.getDisposed());
+        }
+
+        private long getModificationCount() {
+            return PsiManager.getInstance(project).getModificationTracker().getModificationCount();
+        }
+
+        @Nullable
+        private IntentBuilderSpec computeStaleSpec() {
+            final PsiClass topLevelClass = pointer.getElement();
+            if (topLevelClass == null || DumbService.isDumb(project)) {
+                return null;
+            }
+
+            final PsiClass builderClass = topLevelClass.findInnerClassByName(
+                    IntentBuilderGenerator.BUILDER_CLASS_NAME, false);
+            final String recorded = builderClass != null
+                    ? IntentBuilderOutOfSyncInspection.recordedFingerprint(builderClass) : null;
+            if (recorded == null) {
+                return null;
+            }
+
+            final List<PsiFieldMember> members = IntentBuilderCollector.collectFields(topLevelClass, topLevelClass);
+            if (members == null || members.isEmpty()
+                    || recorded.equals(IntentBuilderUtils.fieldsFingerprint(members))) {
+                return null;
+            }
+
+            final Map<String, String[]> tags = IntentBuilderCollector.recoverTags(topLevelClass, members);
+            if (IntentBuilderCollector.hasUnrecoveredTags(topLevelClass, tags)) {
+                // a tag typed as a reference to another constant, regenerating would drop its extra
+                return null;
+            }
+            try {
+                return IntentBuilderSpec.getOrCompute(topLevelClass, members, tags,
+                        IntentBuilderOption.currentOptions());
+            } catch (IncorrectOperationException e) {
+                // the inherited tags differ from the base builder, it is never changed in the background
+                return null;
+            }
+        }
+    }
+
+    public static final class Starter implements StartupActivity {
+        @Override
+        public void runActivity(@NotNull final Project project) {
+            getInstance(project).start();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.mikeescom;
+
+import java.util.Collection;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.intellij.openapi.extensions.ExtensionPointName;
+
+import com.intellij.psi.PsiType;
+
+/**
+ * Maps a field type to the code writing it to and reading it from an Intent. Other plugins can
+ * contribute codecs through the {@code com.mikeescom.extraCodec} extension point, they take precedence
+ * over the built-in ones in {@link IntentExtraCodecs}.
+ */
+public interface IntentExtraCodec {
+    ExtensionPointName<IntentExtraCodec> EP_NAME = ExtensionPointName.create("com.mikeescom.extraCodec");
+
+    /**
+     * @return canonical texts of the types handled, eg. {@code java.lang.Integer} or {@code int[]}
+     */
+    @NotNull
+    Collection<String> getTypeNames();
+
+    /**
+     * @return a statement writing {@code value} under {@code key}
+     */
+    @NotNull
+    String generatePut(@NotNull ExtraContainer container, @NotNull String key, @NotNull String value,
+                       @NotNull PsiType type);
+
+    /**
+     * @return an expression reading the value stored under {@code key}
+     */
+    @NotNull
+    String generateGet(@NotNull ExtraContainer container, @NotNull String key, @NotNull PsiType type);
+}
@@ -0,0 +1,100 @@
+package com.mikeescom;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiClassType;
+import com.intellij.psi.PsiType;
+import com.intellij.psi.util.InheritanceUtil;
+
+/**
+ * Finds the codec of a field type. Exact types are a single map lookup on the canonical text, only
+ * class types without a registered codec are resolved to check for enums, Parcelable and Serializable.
+ */
+public final class IntentExtraCodecRegistry {
+    @NonNls
+    private static final String PARCELABLE_CLASS_NAME = "android.os.Parcelable";
+    @NonNls
+    private static final String SERIALIZABLE_CLASS_NAME = "java.io.Serializable";
+
+    private static IntentExtraCodecRegistry instance;
+
+    private final Map<String, IntentExtraCodec> codecsByType = new HashMap<String, IntentExtraCodec>();
+    private final Map<String, String> typeNamesByShortName = new HashMap<String, String>();
+
+    private IntentExtraCodecRegistry() {
+        for (final IntentExtraCodec codec : IntentExtraCodecs.builtIns()) {
+            register(codec);
+        }
+
+        // contributed codecs win over the built-in ones
+        for (final IntentExtraCodec codec : IntentExtraCodec.EP_NAME.getExtensions()) {
+            register(codec);
+        }
+    }
+
+    public static synchronized IntentExtraCodecRegistry getInstance() {
+        if (instance == null) {
+            instance = new IntentExtraCodecRegistry();
+        }
+        return instance;
+    }
+
+    private void register(final IntentExtraCodec codec) {
+        for (final String typeName : codec.getTypeNames()) {
+            codecsByType.put(typeName, codec);
+            typeNamesByShortName.put(StringUtil.getShortName(typeName), typeName);
+        }
+    }
+
+    /**
+     * Matches a type by the text it is written with, for use while indices are not ready: only types with
+     * a registered codec are recognized, enums, Parcelable and Serializable classes need resolving.
+     *
+     * @return the registered qualified name of the type
+     * @throws IndexNotReadyException if the type has no registered codec
+     */
+    @NotNull
+    public String findTypeNameWithoutIndices(@NotNull final PsiType type) {
+        final String typeName = typeNamesByShortName.get(type.getPresentableText());
+        if (typeName == null) {
+            throw IndexNotReadyException.create();
+        }
+        return typeName;
+    }
+
+    @Nullable
+    public IntentExtraCodec find(@NotNull final PsiType type, final boolean enumsByName) {
+        final IntentExtraCodec codec = codecsByType.get(type.getCanonicalText());
+        if (codec != null) {
+            return codec;
+        }
+
+        if (!(type instanceof PsiClassType)) {
+            return null;
+        }
+
+        final PsiClass psiClass = ((PsiClassType) type).resolve();
+        if (psiClass == null) {
+            return null;
+        }
+
+        if (psiClass.isEnum()) {
+            return enumsByName ? IntentExtraCodecs.ENUM_NAME : IntentExtraCodecs.ENUM_ORDINAL;
+        }
+        if (InheritanceUtil.isInheritor(psiClass, PARCELABLE_CLASS_NAME)) {
+            return IntentExtraCodecs.PARCELABLE;
+        }
+        if (InheritanceUtil.isInheritor(psiClass, SERIALIZABLE_CLASS_NAME)) {
+            return IntentExtraCodecs.SERIALIZABLE;
+        }
+        return null;
+    }
+}
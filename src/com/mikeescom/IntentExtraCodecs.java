@@ -0,0 +1,205 @@
+package com.mikeescom;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+import com.intellij.psi.PsiType;
+
+/**
+ * The codecs shipped with the plugin.
+ */
+public final class IntentExtraCodecs {
+    /**
+     * Enums as their ordinal, an int in the Parcel instead of a Serializable.
+     */
+    public static final IntentExtraCodec ENUM_ORDINAL = new EnumOrdinalCodec();
+    /**
+     * Enums as their constant name, stable across reordering of the constants.
+     */
+    public static final IntentExtraCodec ENUM_NAME = new EnumNameCodec();
+    public static final IntentExtraCodec PARCELABLE = new TypedCodec("android.os.Parcelable", "Parcelable");
+    public static final IntentExtraCodec SERIALIZABLE = new SerializableCodec();
+
+    private IntentExtraCodecs() { }
+
+    static List<IntentExtraCodec> builtIns() {
+        final List<IntentExtraCodec> codecs = new ArrayList<IntentExtraCodec>();
+        codecs.add(new PrimitiveCodec("boolean", "Boolean", "false"));
+        codecs.add(new PrimitiveCodec("byte", "Byte", "(byte) 0"));
+        codecs.add(new PrimitiveCodec("short", "Short", "(short) 0"));
+        codecs.add(new PrimitiveCodec("int", "Int", "0"));
+        codecs.add(new PrimitiveCodec("long", "Long", "0L"));
+        codecs.add(new PrimitiveCodec("float", "Float", "0f"));
+        codecs.add(new PrimitiveCodec("double", "Double", "0d"));
+        codecs.add(new PrimitiveCodec("char", "Char", "(char) 0"));
+
+        codecs.add(new BoxedCodec("java.lang.Boolean", "Boolean", "false", "booleanValue"));
+        codecs.add(new BoxedCodec("java.lang.Byte", "Byte", "(byte) 0", "byteValue"));
+        codecs.add(new BoxedCodec("java.lang.Short", "Short", "(short) 0", "shortValue"));
+        codecs.add(new BoxedCodec("java.lang.Integer", "Int", "0", "intValue"));
+        codecs.add(new BoxedCodec("java.lang.Long", "Long", "0L", "longValue"));
+        codecs.add(new BoxedCodec("java.lang.Float", "Float", "0f", "floatValue"));
+        codecs.add(new BoxedCodec("java.lang.Double", "Double", "0d", "doubleValue"));
+        codecs.add(new BoxedCodec("java.lang.Character", "Char", "(char) 0", "charValue"));
+
+        codecs.add(new TypedCodec("java.lang.String", "String"));
+        codecs.add(new TypedCodec("java.lang.CharSequence", "CharSequence"));
+        codecs.add(new TypedCodec("android.os.Bundle", "Bundle"));
+        codecs.add(new TypedCodec("boolean[]", "BooleanArray"));
+        codecs.add(new TypedCodec("byte[]", "ByteArray"));
+        codecs.add(new TypedCodec("short[]", "ShortArray"));
+        codecs.add(new TypedCodec("int[]", "IntArray"));
+        codecs.add(new TypedCodec("long[]", "LongArray"));
+        codecs.add(new TypedCodec("float[]", "FloatArray"));
+        codecs.add(new TypedCodec("double[]", "DoubleArray"));
+        codecs.add(new TypedCodec("char[]", "CharArray"));
+        codecs.add(new TypedCodec("java.lang.String[]", "StringArray"));
+        codecs.add(new TypedCodec("java.lang.CharSequence[]", "CharSequenceArray"));
+        return codecs;
+    }
+
+    /**
+     * Types with a typed accessor pair, read without a default value.
+     */
+    private static class TypedCodec implements IntentExtraCodec {
+        private final String typeName;
+        @NonNls
+        final String suffix;
+
+        TypedCodec(final String typeName, @NonNls final String suffix) {
+            this.typeName = typeName;
+            this.suffix = suffix;
+        }
+
+        @NotNull
+        @Override
+        public Collection<String> getTypeNames() {
+            return Collections.singletonList(typeName);
+        }
+
+        @NotNull
+        @Override
+        public String generatePut(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final String value, @NotNull final PsiType type) {
+            return container.put(suffix, key, value);
+        }
+
+        @NotNull
+        @Override
+        public String generateGet(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final PsiType type) {
+            return container.get(suffix, key, null);
+        }
+    }
+
+    private static class PrimitiveCodec extends TypedCodec {
+        final String defaultValue;
+
+        PrimitiveCodec(final String typeName, final String suffix, final String defaultValue) {
+            super(typeName, suffix);
+            this.defaultValue = defaultValue;
+        }
+
+        @NotNull
+        @Override
+        public String generateGet(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final PsiType type) {
+            return container.get(suffix, key, defaultValue);
+        }
+    }
+
+    /**
+     * Boxed types go through the primitive accessor, otherwise they would end up as Serializable.
+     */
+    private static class BoxedCodec extends PrimitiveCodec {
+        private final String unboxMethod;
+
+        BoxedCodec(final String typeName, final String suffix, final String defaultValue,
+                   @NonNls final String unboxMethod) {
+            super(typeName, suffix, defaultValue);
+            this.unboxMethod = unboxMethod;
+        }
+
+        @NotNull
+        @Override
+        public String generatePut(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final String value, @NotNull final PsiType type) {
+            return String.format("if (%s != null) { %s }", value,
+                    container.put(suffix, key, String.format("%s.%s()", value, unboxMethod)));
+        }
+
+        @NotNull
+        @Override
+        public String generateGet(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final PsiType type) {
+            return String.format("%s ? %s.valueOf(%s) : null", container.has(key), type.getCanonicalText(),
+                    container.get(suffix, key, defaultValue));
+        }
+    }
+
+    private static class EnumOrdinalCodec implements IntentExtraCodec {
+        @NotNull
+        @Override
+        public Collection<String> getTypeNames() {
+            return Collections.emptyList();
+        }
+
+        @NotNull
+        @Override
+        public String generatePut(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final String value, @NotNull final PsiType type) {
+            return String.format("if (%s != null) { %s }", value,
+                    container.put("Int", key, String.format("%s.ordinal()", value)));
+        }
+
+        @NotNull
+        @Override
+        public String generateGet(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final PsiType type) {
+            return String.format("%s ? %s.values()[%s] : null", container.has(key), type.getCanonicalText(),
+                    container.get("Int", key, "0"));
+        }
+    }
+
+    private static class EnumNameCodec implements IntentExtraCodec {
+        @NotNull
+        @Override
+        public Collection<String> getTypeNames() {
+            return Collections.emptyList();
+        }
+
+        @NotNull
+        @Override
+        public String generatePut(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final String value, @NotNull final PsiType type) {
+            return String.format("if (%s != null) { %s }", value,
+                    container.put("String", key, String.format("%s.name()", value)));
+        }
+
+        @NotNull
+        @Override
+        public String generateGet(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final PsiType type) {
+            return String.format("%s ? %s.valueOf(%s) : null", container.has(key), type.getCanonicalText(),
+                    container.get("String", key, null));
+        }
+    }
+
+    private static class SerializableCodec extends TypedCodec {
+        SerializableCodec() {
+            super("java.io.Serializable", "Serializable");
+        }
+
+        @NotNull
+        @Override
+        public String generateGet(@NotNull final ExtraContainer container, @NotNull final String key,
+                                  @NotNull final PsiType type) {
+            return String.format("(%s) %s", type.getCanonicalText(), super.generateGet(container, key, type));
+        }
+    }
+}
@@ -5,14 +5,17 @@ import com.intellij.openapi.ui.DialogWrapper;
 import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
 import java.awt.*;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 public class MemberVariablesEditor extends DialogWrapper {
     private JTable table;
     private List<PsiFieldMember> listMembers;
+    private Map<String, String[]> initialTags = Collections.emptyMap();
 
     protected MemberVariablesEditor() {
         super(true); // use current window as parent
@@ -25,18 +28,37 @@ public class MemberVariablesEditor extends DialogWrapper {
         init();
     }
 
+    /**
+     * @param initialTags the tags the rows start with, eg. recovered from a previous generation
+     */
+    protected MemberVariablesEditor(List<PsiFieldMember> members, Map<String, String[]> initialTags) {
+        super(true); // use current window as parent
+        listMembers = members;
+        this.initialTags = initialTags;
+        init();
+    }
+
     @Nullable
     @Override
     protected JComponent createCenterPanel() {
         JPanel dialogPanel = new JPanel(new BorderLayout());
-        String[] columnNames = {"Variable Name", "TAG"};
-        String[][] data = new String[listMembers.size()][2];
+        String[] columnNames = {"Variable Name", "TAG", "Shared memory"};
+        Object[][] data = new Object[listMembers.size()][3];
 
         for (int i = 0 ; i < listMembers.size() ; i++) {
             data[i][0] = listMembers.get(i).getText();
+            String[] tag = initialTags.get(listMembers.get(i).getElement().getName());
+            data[i][1] = tag != null ? tag[1] : null;
+            data[i][2] = tag != null && tag.length > 2 ? Boolean.valueOf(tag[2]) : Boolean.FALSE;
         }
 
-        table = new JTable(data, columnNames);
+        table = new JTable(new DefaultTableModel(data, columnNames) {
+            @Override
+            public Class<?> getColumnClass(int columnIndex) {
+                // rendered as a check box, for byte[] and ByteBuffer fields passed to another process
+                return columnIndex == 2 ? Boolean.class : String.class;
+            }
+        });
         table.setBounds(30, 40, 200, 300);
 
         JScrollPane sp = new JScrollPane(table);
@@ -47,11 +69,12 @@ public class MemberVariablesEditor extends DialogWrapper {
     }
 
     public Map<String, String[]> getTags() {
-        Map<String, String[]> tags = new HashMap<>();
+        Map<String, String[]> tags = new LinkedHashMap<>();
         for (int i = 0 ; i < table.getRowCount() ; i++) {
             try {
                 String[] data = table.getModel().getValueAt(i, 0).toString().split(":");
-                tags.put(data[0], new String[]{data[1], table.getModel().getValueAt(i, 1).toString()});
+                tags.put(data[0], new String[]{data[1], table.getModel().getValueAt(i, 1).toString(),
+                        String.valueOf(table.getModel().getValueAt(i, 2))});
             } catch (Exception e) {
                 e.getMessage();
                 continue;
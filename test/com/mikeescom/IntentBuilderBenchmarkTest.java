@@ -0,0 +1,170 @@
+package com.mikeescom;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.intellij.codeInsight.generation.PsiFieldMember;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+
+/**
+ * Compares the generation paths on a large class. Each path takes the median of several runs on fresh
+ * files, and may be slower than its baseline by the tolerance of a shared machine only.
+ */
+public class IntentBuilderBenchmarkTest extends LightJavaCodeInsightFixtureTestCase {
+    private static final int LARGE_FIELD_COUNT = 200;
+    private static final int RUNS = 5;
+    private static final double TOLERANCE = 1.5;
+
+    private int fileCount;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myFixture.addClass("package android.content; public class Context { }");
+        myFixture.addClass("package android.content; public class Intent {"
+                + " public Intent(Context context, Class<?> cls) { }"
+                + " public Intent putExtra(String name, String value) { return this; }"
+                + " public Intent putExtra(String name, int value) { return this; }"
+                + " public String getStringExtra(String name) { return null; }"
+                + " public int getIntExtra(String name, int defaultValue) { return defaultValue; }"
+                + " }");
+    }
+
+    public void testSingleCommandIsNoSlowerOnLargeFiles() {
+        // the first generation of the JVM loads the classes of both paths
+        IntentBuilderGenerator.generate(getProject(), createLargeFile(), computeSpec(createLargeFile()));
+
+        final long[] baseline = new long[RUNS];
+        final long[] command = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            final PsiFile baselineFile = createLargeFile();
+            final IntentBuilderSpec baselineSpec = computeSpec(baselineFile);
+            baseline[i] = time(() -> IntentBuilderGenerator.generateWithoutPostponedFormatting(getProject(),
+                    baselineFile, baselineSpec));
+
+            final PsiFile commandFile = createLargeFile();
+            final IntentBuilderSpec commandSpec = computeSpec(commandFile);
+            command[i] = time(() -> IntentBuilderGenerator.generate(getProject(), commandFile, commandSpec));
+        }
+
+        assertNoSlower("single command", median(command), median(baseline));
+    }
+
+    public void testCustomTemplatesAreNoSlowerThanBuiltIn() {
+        IntentBuilderGenerator.generate(getProject(), createLargeFile(), computeSpec(createLargeFile()));
+        final long builtIn = medianGenerationTime();
+
+        final Map<IntentBuilderTemplate, String> customTexts = new EnumMap<IntentBuilderTemplate, String>(
+                IntentBuilderTemplate.class);
+        customTexts.put(IntentBuilderTemplate.SETTER_NAME, "set${Name}");
+        customTexts.put(IntentBuilderTemplate.SETTER, "@java.lang.Override\n"
+                + "public ${returnType} ${methodName}(final ${type} ${param}) {\n"
+                + "this.${field} = ${param};\n"
+                + "return this;\n"
+                + "}");
+        customTexts.put(IntentBuilderTemplate.GETTER, "/** @return the ${field} extra */\n"
+                + "public ${type} ${methodName}() {\n"
+                + "return this.${field};\n"
+                + "}");
+        try {
+            for (final Map.Entry<IntentBuilderTemplate, String> customText : customTexts.entrySet()) {
+                IntentBuilderTemplates.setTemplateText(getProject(), customText.getKey(), customText.getValue());
+            }
+            IntentBuilderGenerator.generate(getProject(), createLargeFile(), computeSpec(createLargeFile()));
+            final long custom = medianGenerationTime();
+
+            assertNoSlower("custom templates", custom, builtIn);
+        } finally {
+            for (final IntentBuilderTemplate template : customTexts.keySet()) {
+                IntentBuilderTemplates.setTemplateText(getProject(), template, null);
+            }
+        }
+    }
+
+    /**
+     * Classes loaded by the JVM stay loaded, only the caches of the project are reset. The generation without
+     * warm-up runs first so it is the one paying for them.
+     */
+    public void testWarmUpMakesTheFirstGenerationNoSlower() throws Exception {
+        resetTemplateCaches();
+        final PsiFile coldFile = createLargeFile();
+        final IntentBuilderSpec coldSpec = computeSpec(coldFile);
+        final long cold = time(() -> IntentBuilderGenerator.generate(getProject(), coldFile, coldSpec));
+
+        resetTemplateCaches();
+        ApplicationManager.getApplication().executeOnPooledThread(
+                () -> IntentBuilderWarmUp.warmUp(getProject())).get();
+        final PsiFile warmFile = createLargeFile();
+        final IntentBuilderSpec warmSpec = computeSpec(warmFile);
+        final long warm = time(() -> IntentBuilderGenerator.generate(getProject(), warmFile, warmSpec));
+
+        assertNoSlower("first generation after warm-up", warm, cold);
+    }
+
+    private void resetTemplateCaches() {
+        for (final IntentBuilderTemplate template : IntentBuilderTemplate.values()) {
+            IntentBuilderTemplates.setTemplateText(getProject(), template, null);
+        }
+    }
+
+    private long medianGenerationTime() {
+        final long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            final PsiFile file = createLargeFile();
+            final IntentBuilderSpec spec = computeSpec(file);
+            times[i] = time(() -> IntentBuilderGenerator.generate(getProject(), file, spec));
+        }
+        return median(times);
+    }
+
+    private PsiFile createLargeFile() {
+        final String className = "Large" + fileCount++;
+        final StringBuilder text = new StringBuilder("public class ").append(className).append(" {\n");
+        for (int i = 0; i < LARGE_FIELD_COUNT; i++) {
+            text.append(i % 2 == 0 ? "    private String name" : "    private int count").append(i).append(";\n");
+        }
+        text.append("}\n");
+        return myFixture.addFileToProject(className + ".java", text.toString());
+    }
+
+    private IntentBuilderSpec computeSpec(final PsiFile file) {
+        final PsiClass topLevelClass = ((PsiJavaFile) file).getClasses()[0];
+        final List<PsiFieldMember> members = IntentBuilderCollector.collectFields(topLevelClass, topLevelClass);
+        assertNotNull(members);
+
+        final Map<String, String[]> tags = new LinkedHashMap<String, String[]>();
+        for (final PsiFieldMember member : members) {
+            final String name = member.getElement().getName();
+            tags.put(name, new String[]{member.getElement().getType().getPresentableText(),
+                    "\"" + name + "\"", "false"});
+        }
+        return IntentBuilderSpec.getOrCompute(topLevelClass, members, tags,
+                EnumSet.noneOf(IntentBuilderOption.class));
+    }
+
+    private static long time(final Runnable runnable) {
+        final long start = System.nanoTime();
+        runnable.run();
+        return System.nanoTime() - start;
+    }
+
+    private static long median(final long[] times) {
+        final long[] sorted = times.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void assertNoSlower(final String name, final long time, final long baseline) {
+        System.out.println(String.format("%s: %d ms, baseline %d ms", name, time / 1000000L, baseline / 1000000L));
+        assertTrue(String.format("%s took %d ms, the baseline %d ms", name, time / 1000000L, baseline / 1000000L),
+                time <= baseline * TOLERANCE);
+    }
+}
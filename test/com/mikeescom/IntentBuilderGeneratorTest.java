@@ -0,0 +1,118 @@
+package com.mikeescom;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.intellij.codeInsight.generation.PsiFieldMember;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.psi.JavaPsiFacade;
+import com.intellij.psi.PsiClass;
+import com.intellij.psi.PsiField;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiJavaFile;
+import com.intellij.testFramework.fixtures.LightJavaCodeInsightFixtureTestCase;
+
+public class IntentBuilderGeneratorTest extends LightJavaCodeInsightFixtureTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        myFixture.addClass("package android.content; public class Context { }");
+        myFixture.addClass("package android.content; public class Intent {"
+                + " public Intent(Context context, Class<?> cls) { }"
+                + " public Intent putExtra(String name, String value) { return this; }"
+                + " public Intent putExtra(String name, int value) { return this; }"
+                + " public String getStringExtra(String name) { return null; }"
+                + " public int getIntExtra(String name, int defaultValue) { return defaultValue; }"
+                + " }");
+    }
+
+    public void testRegeneratingUnchangedClassIsByteIdentical() {
+        final PsiFile file = myFixture.configureByText("Target.java", "public class Target {\n"
+                + "    private String name;\n"
+                + "    private int count;\n"
+                + "\n"
+                + "    public void refresh() {\n"
+                + "    }\n"
+                + "}\n");
+
+        generate(file);
+        final String generated = file.getText();
+
+        generate(file);
+        assertEquals(generated, file.getText());
+    }
+
+    public void testNewStepIsPlacedWithTheOtherGeneratedClasses() {
+        final PsiFile file = myFixture.configureByText("Target.java", "public class Target {\n"
+                + "    private String name;\n"
+                + "}\n");
+        generate(file);
+
+        final PsiClass topLevelClass = ((PsiJavaFile) file).getClasses()[0];
+        final PsiField count = JavaPsiFacade.getElementFactory(getProject())
+                .createFieldFromText("private int count;", topLevelClass);
+        WriteCommandAction.runWriteCommandAction(getProject(),
+                () -> topLevelClass.addAfter(count, topLevelClass.findFieldByName("name", false)));
+        generate(file);
+
+        final String text = file.getText();
+        assertTrue(text.indexOf("interface IName") < text.indexOf("interface ICount"));
+        assertTrue(text.indexOf("interface ICount") < text.indexOf("class Builder"));
+        assertTrue(text.indexOf("class Builder") < text.indexOf("getName()"));
+    }
+
+    public void testCompactKeyStaysWhenACollidingFieldIsAddedBefore() {
+        final String key = IntentBuilderUtils.compactKey("name", new HashSet<String>());
+        String collidingName = null;
+        for (int i = 0; collidingName == null; i++) {
+            if (key.equals(IntentBuilderUtils.compactKey("field" + i, new HashSet<String>()))) {
+                collidingName = "field" + i;
+            }
+        }
+
+        final PsiFile file = myFixture.configureByText("Target.java", "public class Target {\n"
+                + "    private String name;\n"
+                + "}\n");
+        generate(file, EnumSet.of(IntentBuilderOption.COMPACT_KEYS));
+
+        final PsiClass topLevelClass = ((PsiJavaFile) file).getClasses()[0];
+        final PsiField colliding = JavaPsiFacade.getElementFactory(getProject())
+                .createFieldFromText("private String " + collidingName + ";", topLevelClass);
+        WriteCommandAction.runWriteCommandAction(getProject(),
+                () -> topLevelClass.addBefore(colliding, topLevelClass.findFieldByName("name", false)));
+        generate(file, EnumSet.of(IntentBuilderOption.COMPACT_KEYS));
+
+        final PsiField nameKey = topLevelClass.findFieldByName("EXTRA_NAME", false);
+        final PsiField collidingKey = topLevelClass.findFieldByName(
+                "EXTRA_" + IntentBuilderUtils.toConstantName(collidingName), false);
+        assertNotNull(nameKey);
+        assertNotNull(collidingKey);
+        assertEquals(key, nameKey.computeConstantValue());
+        assertFalse(key.equals(collidingKey.computeConstantValue()));
+    }
+
+    private void generate(final PsiFile file) {
+        generate(file, EnumSet.noneOf(IntentBuilderOption.class));
+    }
+
+    private void generate(final PsiFile file, final Set<IntentBuilderOption> options) {
+        final PsiClass topLevelClass = ((PsiJavaFile) file).getClasses()[0];
+        final List<PsiFieldMember> members = IntentBuilderCollector.collectFields(topLevelClass, topLevelClass);
+        assertNotNull(members);
+
+        final Map<String, String[]> tags = new LinkedHashMap<String, String[]>();
+        for (final PsiFieldMember member : members) {
+            final String name = member.getElement().getName();
+            tags.put(name, new String[]{member.getElement().getType().getPresentableText(),
+                    "\"" + name + "\"", "false"});
+        }
+
+        final IntentBuilderSpec spec = IntentBuilderSpec.getOrCompute(topLevelClass, members, tags, options);
+        IntentBuilderGenerator.generate(getProject(), file, spec);
+    }
+}